@@ -0,0 +1,156 @@
+package jenkins.plugins.telegram;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import hudson.scm.EditType;
+import hudson.tasks.test.AbstractTestResultAction;
+import hudson.tasks.test.TestResult;
+import org.mockito.MockSettings;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Builds with a configurable amount of changes and failed tests, outside of a running Jenkins.
+ * Mocks are stub-only so they do not record the invocations made while benchmarking.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+final class BuildFixtures {
+
+    static final String BUILD_SERVER_URL = "https://jenkins.example.com/";
+
+    private static final String[] AUTHORS = {"Alice Example", "Bob O'Neil", "Carol & Dave", "eve"};
+    private static final String[] MESSAGES = {
+            "Fix NPE in the login form",
+            "- Bump dependency versions - Regenerate the lock file",
+            "Handle List<String> results when a && b > c",
+            "Merge branch 'feature/telegram-digest' into master",
+    };
+
+    private BuildFixtures() {
+    }
+
+    static TelegramNotifier notifier(CommitInfoChoice commitInfoChoice) {
+        return new TelegramNotifier("token", "-1001234567890", BUILD_SERVER_URL, "Jenkins", true, true, true,
+                true, true, true, true, true, true, true, commitInfoChoice, false, "");
+    }
+
+    static AbstractBuild build(int changes, int failedTests) {
+        AbstractProject project = mock(AbstractProject.class, stubOnly());
+        when(project.getFullDisplayName()).thenReturn("platform » payments <api> & friends");
+        when(project.getFullName()).thenReturn("platform/payments");
+
+        AbstractBuild build = mock(AbstractBuild.class, stubOnly());
+        doReturn(project).when(build).getProject();
+        doReturn(project).when(build).getParent();
+        when(build.getNumber()).thenReturn(1234);
+        when(build.getDisplayName()).thenReturn("#1234");
+        when(build.getUrl()).thenReturn("job/platform/job/payments/1234/");
+        when(build.getDurationString()).thenReturn("4 min 12 sec");
+        when(build.hasChangeSetComputed()).thenReturn(true);
+        doReturn(changeSet(changes)).when(build).getChangeSet();
+        doReturn(testResults(failedTests)).when(build).getAction(AbstractTestResultAction.class);
+        return build;
+    }
+
+    private static ChangeLogSet changeSet(int changes) {
+        User[] authors = new User[AUTHORS.length];
+        for (int i = 0; i < authors.length; i++) {
+            authors[i] = mock(User.class, stubOnly());
+            when(authors[i].getDisplayName()).thenReturn(AUTHORS[i]);
+        }
+        final Object[] entries = new Object[changes];
+        for (int i = 0; i < changes; i++) {
+            entries[i] = new Change(MESSAGES[i % MESSAGES.length] + " (" + i + ")", authors[i % authors.length],
+                    Arrays.asList("src/main/java/com/example/payments/Module" + (i % 50) + ".java",
+                            "src/test/java/com/example/payments/Module" + (i % 50) + "Test.java"));
+        }
+        ChangeLogSet changeSet = mock(ChangeLogSet.class, stubOnly());
+        when(changeSet.getItems()).thenReturn(entries);
+        when(changeSet.isEmptySet()).thenReturn(changes == 0);
+        when(changeSet.iterator()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return Arrays.asList(entries).iterator();
+            }
+        });
+        return changeSet;
+    }
+
+    private static AbstractTestResultAction testResults(int failedTests) {
+        List<TestResult> failed = new ArrayList<TestResult>(failedTests);
+        for (int i = 0; i < failedTests; i++) {
+            TestResult result = mock(TestResult.class, stubOnly());
+            when(result.getName()).thenReturn("com.example.payments.integration.module" + (i % 20)
+                    + ".SettlementReconciliationIntegrationTest.reconcilesPartialRefund" + i);
+            failed.add(result);
+        }
+        AbstractTestResultAction action = mock(AbstractTestResultAction.class, stubOnly());
+        when(action.getTotalCount()).thenReturn(1000 + failedTests);
+        when(action.getFailCount()).thenReturn(failedTests);
+        when(action.getSkipCount()).thenReturn(7);
+        doReturn(failed).when(action).getFailedTests();
+        return action;
+    }
+
+    private static MockSettings stubOnly() {
+        return withSettings().stubOnly();
+    }
+
+    static final class Change extends ChangeLogSet.Entry {
+        private final String msg;
+        private final User author;
+        private final List<String> paths;
+
+        Change(String msg, User author, List<String> paths) {
+            this.msg = msg;
+            this.author = author;
+            this.paths = paths;
+        }
+
+        @Override
+        public String getMsg() {
+            return msg;
+        }
+
+        @Override
+        public User getAuthor() {
+            return author;
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            return paths;
+        }
+
+        @Override
+        public Collection<? extends ChangeLogSet.AffectedFile> getAffectedFiles() {
+            List<ChangeLogSet.AffectedFile> files = new ArrayList<ChangeLogSet.AffectedFile>(paths.size());
+            for (final String path : paths) {
+                files.add(new ChangeLogSet.AffectedFile() {
+                    @Override
+                    public String getPath() {
+                        return path;
+                    }
+
+                    @Override
+                    public EditType getEditType() {
+                        return EditType.EDIT;
+                    }
+                });
+            }
+            return files;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package jenkins.plugins.telegram;
+
+import jenkins.plugins.telegram.ActiveNotifier.MessageBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTML escaping of text without reserved characters, the common case, and of text with some.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EscapeBenchmark {
+
+    @Param({"plain", "markup"})
+    String text;
+
+    private String input;
+    private final StringBuilder out = new StringBuilder(4096);
+
+    @Setup
+    public void setUp() {
+        input = "plain".equals(text)
+                ? "Merge branch 'feature/telegram-digest' into master - fixes #123 and #456 for the payments team"
+                : "Handle List<String> results when a && b > c in <b>Parser</b> - fixes #123 for the payments team";
+    }
+
+    @Benchmark
+    public String escape() {
+        return MessageBuilder.escape(input);
+    }
+
+    @Benchmark
+    public StringBuilder escapeInto() {
+        out.setLength(0);
+        return MessageBuilder.escape(out, input);
+    }
+}
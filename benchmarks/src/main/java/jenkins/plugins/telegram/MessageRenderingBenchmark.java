@@ -0,0 +1,63 @@
+package jenkins.plugins.telegram;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import jenkins.plugins.telegram.ActiveNotifier.MessageBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of the build completed message, including large changelogs and many failed tests.
+ * Run with {@code -prof gc} to see the bytes allocated per message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageRenderingBenchmark {
+
+    @Param({"10", "500"})
+    int changes;
+
+    @Param({"0", "200"})
+    int failedTests;
+
+    private ActiveNotifier notifier;
+    private AbstractBuild<?, ?> build;
+    private NotificationContext context;
+    private BuildTransition transition;
+    private MessageBuilder builder;
+
+    @Setup
+    public void setUp() {
+        TelegramNotifier telegramNotifier = BuildFixtures.notifier(CommitInfoChoice.AUTHORS_AND_TITLES);
+        notifier = new ActiveNotifier(telegramNotifier, null);
+        build = BuildFixtures.build(changes, failedTests);
+        context = new NotificationContext(build, null);
+        transition = new BuildTransition(Result.UNSTABLE, Result.SUCCESS, null, false);
+        builder = new MessageBuilder(telegramNotifier, build, transition);
+    }
+
+    @Benchmark
+    public String completedMessage() {
+        return notifier.getBuildStatusMessage(context, transition, true, true, false);
+    }
+
+    @Benchmark
+    public String commitList() {
+        return builder.getCommitList(build);
+    }
+}
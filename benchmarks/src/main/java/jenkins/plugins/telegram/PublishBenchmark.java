@@ -0,0 +1,90 @@
+package jenkins.plugins.telegram;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending a message to an in-process Bot API stub: {@code enqueue} goes through the dispatcher queue
+ * like a build notification and waits for the answer, {@code send} is the bare HTTP round trip. The
+ * rate limits are lifted so the benchmark measures the plugin rather than Telegram's pacing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {
+        "-Djenkins.plugins.telegram.RateLimiter.perChatMessagesPerSecond=1000000000",
+        "-Djenkins.plugins.telegram.RateLimiter.globalMessagesPerSecond=1000000000"})
+@State(Scope.Benchmark)
+public class PublishBenchmark {
+
+    private static final String MESSAGE = "\u2757 <b>platform » payments - #1234</b>\n"
+            + "Failure after 4 min 12 sec (<a href=\"https://jenkins.example.com/job/platform/job/payments/1234/\">"
+            + "Open</a>)";
+    private static final byte[] RESPONSE = "{\"ok\":true,\"result\":{\"message_id\":1}}".getBytes();
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private StandardTelegramService service;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[4096];
+                while (in.read(buffer) != -1) {
+                    // drain the form body so the connection can be reused
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, RESPONSE.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(RESPONSE);
+                out.close();
+            }
+        });
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        service = new StandardTelegramService("token", "-1001234567890",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/bot%s/sendMessage");
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean enqueue() throws Exception {
+        return service.enqueue(MESSAGE).get();
+    }
+
+    @Benchmark
+    public TelegramResponse send() {
+        return service.send(MESSAGE);
+    }
+}
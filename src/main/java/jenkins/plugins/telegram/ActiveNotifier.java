@@ -1,105 +1,226 @@
 package jenkins.plugins.telegram;
 
-import hudson.EnvVars;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import hudson.Util;
-import hudson.model.AbstractBuild;
-import hudson.model.AbstractProject;
-import hudson.model.BuildListener;
 import hudson.model.Cause;
-import hudson.model.CauseAction;
-import hudson.model.Hudson;
+import hudson.model.Job;
 import hudson.model.Result;
 import hudson.model.Run;
-import hudson.scm.ChangeLogSet;
-import hudson.scm.ChangeLogSet.AffectedFile;
+import hudson.model.TaskListener;
 import hudson.scm.ChangeLogSet.Entry;
 import hudson.tasks.test.AbstractTestResultAction;
 import hudson.tasks.test.TestResult;
-import hudson.triggers.SCMTrigger;
-import hudson.util.LogTaskListener;
-import org.apache.commons.lang.StringUtils;
+import jenkins.model.Jenkins;
 
-import java.io.IOException;
+import java.io.PrintStream;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static java.util.logging.Level.INFO;
-import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Level.FINE;
 
 @SuppressWarnings("rawtypes")
 public class ActiveNotifier implements FineGrainedNotifier {
 
     private static final Logger logger = Logger.getLogger(TelegramListener.class.getName());
 
+    /** Authors named in the start message, further ones are summarised as "and others". */
+    static final int MAX_LISTED_AUTHORS = 10;
+    /** Distinct changed files counted for the start message, beyond that it says "more than". */
+    static final int MAX_COUNTED_FILES = 10000;
+
+    /**
+     * Layout of the start notice unless the global configuration has another one. The custom message is
+     * left out of notices that only name their cause.
+     */
+    static final String DEFAULT_START_TEMPLATE = "${emoticon} <b>${job} - ${build}</b>\n"
+            + "${if cause}${cause}${else}${if changes}${changes}${else}${status} after ${duration}${end}${end}"
+            + " (<a href=\"${url}\">Open</a>)${if !cause}${if customMessage}\n${customMessage}${end}${end}";
+    /** Layout of the result notice unless the global configuration has another one. */
+    static final String DEFAULT_COMPLETED_TEMPLATE = "${emoticon} <b>${job} - ${build}</b>\n"
+            + "${status} after ${duration} (<a href=\"${url}\">Open</a>)"
+            + "${if tests}\n${tests}${end}${if customMessage}\n${customMessage}${end}"
+            + "${if commits}\n<b>Changes:</b>\n${commits}${end}";
+
+    private static final MessageTemplate defaultStartTemplate = MessageTemplate.compile(DEFAULT_START_TEMPLATE);
+    private static final MessageTemplate defaultCompletedTemplate = MessageTemplate.compile(DEFAULT_COMPLETED_TEMPLATE);
+
     TelegramNotifier notifier;
-    BuildListener listener;
+    TaskListener listener;
 
-    public ActiveNotifier(TelegramNotifier notifier, BuildListener listener) {
+    public ActiveNotifier(TelegramNotifier notifier, TaskListener listener) {
         super();
         this.notifier = notifier;
         this.listener = listener;
     }
 
-    private TelegramService getTelegram(AbstractBuild r) {
-        return notifier.newTelegramService(r, listener);
+    private Map<String, TelegramService> getTelegrams(NotificationContext context) {
+        return notifier.newTelegramServices(context);
     }
 
-    public void deleted(AbstractBuild r) {
-    }
+    /**
+     * Logs that a notification was queued and, if the build log is still open by then, how it went.
+     */
+    private void report(final String destination, ListenableFuture<Boolean> result) {
+        if (listener == null) {
+            return;
+        }
+        final PrintStream log = listener.getLogger();
+        log.println("Telegram notification queued for " + destination);
+        Futures.addCallback(result, new FutureCallback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean sent) {
+                log.println(Boolean.TRUE.equals(sent) ? "Telegram notification sent to " + destination
+                        : "Telegram notification to " + destination + " could not be sent");
+            }
 
-    public void started(AbstractBuild build) {
+            @Override
+            public void onFailure(Throwable t) {
+                log.println("Telegram notification to " + destination + " failed: " + t);
+            }
+        });
+    }
 
+    /**
+     * Renders the message once the notification is known to be sent. Sections that read test results or
+     * change sets are rendered on the dispatcher's render threads, everything else right away.
+     */
+    private ListenableFuture<String> render(MessageValues values, MessageTemplate template) {
+        if (values.needsEnvironment(template)) {
+            // the environment is logged to the build, so it is looked up while the log is open
+            values.getContext().getEnvironment();
+        }
+        Rendering rendering = new Rendering(values, template);
+        if (!values.isExpensive(template)) {
+            return Futures.immediateFuture(rendering.call());
+        }
+        return TelegramDispatcher.render(rendering);
+    }
 
+    private static final class Rendering implements Callable<String> {
+        private final MessageValues values;
+        private final MessageTemplate template;
 
-        CauseAction causeAction = build.getAction(CauseAction.class);
+        Rendering(MessageValues values, MessageTemplate template) {
+            this.values = values;
+            this.template = template;
+        }
 
-        if (causeAction != null) {
-            Cause scmCause = causeAction.findCause(SCMTrigger.SCMTriggerCause.class);
-            if (scmCause == null) {
-                MessageBuilder message = new MessageBuilder(notifier, build);
-                message.append(causeAction.getShortDescription());
-                notifyStart(build, message.appendOpenLink().toString());
-                // Cause was found, exit early to prevent double-message
-                return;
+        @Override
+        public String call() {
+            long start = System.nanoTime();
+            try {
+                return values.render(template);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Could not render Telegram notification", e);
+                throw e;
+            } finally {
+                TelegramMetrics.rendered(System.nanoTime() - start);
             }
         }
+    }
 
-        String changes = getChanges(build, notifier.includeCustomMessage());
-        if (changes != null) {
-            notifyStart(build, changes);
-        } else {
-            notifyStart(build, getBuildStatusMessage(build, false, false,notifier.includeCustomMessage()));
-        }
+    public void deleted(Run r) {
     }
 
-    private void notifyStart(AbstractBuild build, String message) {
-        try {
-            AbstractProject<?, ?> project = build.getProject();
-            AbstractBuild<?, ?> previousBuild = project.getLastBuild().getPreviousCompletedBuild();
-            getTelegram(build).publish(message, getBuildColor(previousBuild));
-        }
-        catch (NullPointerException npe){
-            getTelegram(build).publish(message, "good");
+    public void started(Run build) {
+        NotificationContext context = new NotificationContext(build, listener);
+        notifyStart(context, getStartMessage(context));
+    }
+
+    private ListenableFuture<String> getStartMessage(NotificationContext context) {
+        TelegramNotifier.DescriptorImpl settings = TelegramNotifier.globalSettings();
+        MessageTemplate template = settings != null ? settings.getStartMessageTemplate() : defaultStartTemplate;
+        MessageSections sections = MessageSections.of(notifier, false, false, notifier.includeCustomMessage());
+        return render(new MessageValues(sections, context, BuildTransition.of(context.getBuild())), template);
+    }
+
+    private void notifyStart(NotificationContext context, ListenableFuture<String> message) {
+        if (!notifier.getDescriptor().getEditStartMessage()) {
+            // rendered once, each destination gets its own queue entry and is sent concurrently
+            for (final Map.Entry<String, TelegramService> telegram : getTelegrams(context).entrySet()) {
+                report(telegram.getKey(), Futures.transform(message, new AsyncFunction<String, Boolean>() {
+                    @Override
+                    public ListenableFuture<Boolean> apply(String text) {
+                        return telegram.getValue().enqueue(text);
+                    }
+                }));
+            }
+            return;
+        }
+        final TelegramMessageAction action = new TelegramMessageAction();
+        context.getBuild().addAction(action);
+        for (final Map.Entry<String, TelegramService> telegram : getTelegrams(context).entrySet()) {
+            final String destination = telegram.getKey();
+            ListenableFuture<TelegramResponse> response = Futures.transform(message,
+                    new AsyncFunction<String, TelegramResponse>() {
+                        @Override
+                        public ListenableFuture<TelegramResponse> apply(String text) {
+                            return telegram.getValue().post(text);
+                        }
+                    });
+            Futures.addCallback(response, new FutureCallback<TelegramResponse>() {
+                @Override
+                public void onSuccess(TelegramResponse sent) {
+                    if (sent.getMessageId() > 0) {
+                        action.setStartMessageId(destination, sent.getMessageId());
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                }
+            });
+            report(destination, TelegramResponse.delivered(response));
         }
     }
 
-    public void finalized(AbstractBuild r) {
+    public void finalized(Run r) {
     }
 
-    public void completed(AbstractBuild r) {
-        AbstractProject<?, ?> project = r.getProject();
+    public void completed(Run r) {
+        Job<?, ?> project = r.getParent();
         if(project == null) return;
-        Result result = r.getResult();
-        AbstractBuild<?, ?> previousBuild = project.getLastBuild();
-        if(previousBuild == null) return;
-        do {
-            previousBuild = previousBuild.getPreviousCompletedBuild();
-        } while (previousBuild != null && previousBuild.getResult() == Result.ABORTED);
-        Result previousResult = (previousBuild != null) ? previousBuild.getResult() : Result.SUCCESS;
-        if ((result == Result.ABORTED && notifier.getNotifyAborted())
+        BuildTransition transition = BuildTransition.of(r);
+        if (shouldNotify(transition)) {
+            NotificationContext context = new NotificationContext(r, listener);
+            final String emoticon = transition.getStatus().getEmoticon();
+            final String title = project.getFullDisplayName() + " - " + r.getDisplayName();
+            final String url = notifier.getBuildServerUrl() + r.getUrl();
+            MessageSections sections = MessageSections.of(notifier, notifier.includeTestSummary(),
+                    notifier.getIncludeFailedTests(), notifier.includeCustomMessage());
+            ListenableFuture<String> message = render(new MessageValues(sections, context, transition),
+                    getCompletedMessageTemplate());
+            TelegramMessageAction started = r.getAction(TelegramMessageAction.class);
+            for (final Map.Entry<String, TelegramService> telegram : getTelegrams(context).entrySet()) {
+                // the start notice is only replaced if it was sent by the time the build finished
+                final long startMessageId = started != null ? started.getStartMessageId(telegram.getKey()) : 0;
+                report(telegram.getKey(), Futures.transform(message, new AsyncFunction<String, Boolean>() {
+                    @Override
+                    public ListenableFuture<Boolean> apply(String text) {
+                        if (startMessageId > 0) {
+                            return TelegramResponse.delivered(telegram.getValue().edit(startMessageId, text));
+                        }
+                        return telegram.getValue().enqueue(new BuildSummary(emoticon, title, url, text));
+                    }
+                }));
+            }
+
+        }
+    }
+
+    boolean shouldNotify(BuildTransition transition) {
+        Result result = transition.getResult();
+        Result previousResult = transition.getPreviousResult();
+        return (result == Result.ABORTED && notifier.getNotifyAborted())
                 || (result == Result.FAILURE //notify only on single failed build
                     && previousResult != Result.FAILURE
                     && notifier.getNotifyFailure())
@@ -107,122 +228,108 @@ public class ActiveNotifier implements FineGrainedNotifier {
                     && previousResult == Result.FAILURE
                     && notifier.getNotifyRepeatedFailure())
                 || (result == Result.NOT_BUILT && notifier.getNotifyNotBuilt())
-                || (result == Result.SUCCESS
-                    && (previousResult == Result.FAILURE || previousResult == Result.UNSTABLE)
-                    && notifier.getNotifyBackToNormal())
+                || (transition.isRecovery() && notifier.getNotifyBackToNormal())
                 || (result == Result.SUCCESS && notifier.getNotifySuccess())
-                || (result == Result.UNSTABLE && notifier.getNotifyUnstable())) {
-            getTelegram(r).publish(getBuildStatusMessage(r, notifier.includeTestSummary(),
-                    notifier.getIncludeFailedTests(),notifier.includeCustomMessage()), getBuildColor(r));
-
-        }
+                || (result == Result.UNSTABLE && notifier.getNotifyUnstable());
     }
 
+    String getBuildStatusMessage(Run r, boolean includeTestSummary,boolean includeFailedTests, boolean includeCustomMessage) {
+        return getBuildStatusMessage(new NotificationContext(r, listener), BuildTransition.of(r), includeTestSummary,
+                includeFailedTests, includeCustomMessage);
+    }
 
+    String getBuildStatusMessage(NotificationContext context, BuildTransition transition, boolean includeTestSummary,
+                                 boolean includeFailedTests, boolean includeCustomMessage) {
+        MessageSections sections = MessageSections.of(notifier, includeTestSummary, includeFailedTests,
+                includeCustomMessage);
+        return new MessageValues(sections, context, transition).render(getCompletedMessageTemplate());
+    }
 
+    private static MessageTemplate getCompletedMessageTemplate() {
+        TelegramNotifier.DescriptorImpl settings = TelegramNotifier.globalSettings();
+        return settings != null ? settings.getCompletedMessageTemplate() : defaultCompletedTemplate;
+    }
 
+    /**
+     * Renders the sections of a message that take more than a lookup: the test summary, the commit list
+     * and the duration. How they are laid out is up to the message templates.
+     */
+    public static class MessageBuilder {
 
-    static String getBuildColor(AbstractBuild r) {
-        Result result = r.getResult();
-        if (result == Result.SUCCESS) {
-            return "good";
-        } else if (result == Result.FAILURE) {
-            return "danger";
-        } else {
-            return "warning";
+        String getCommitList(Run r) {
+            return getCommitList(r, MAX_MESSAGE_LENGTH);
         }
-    }
 
-    String getBuildStatusMessage(AbstractBuild r, boolean includeTestSummary,boolean includeFailedTests, boolean includeCustomMessage) {
-        MessageBuilder message = new MessageBuilder(notifier, r);
-        message.appendStatusMessage();
-        message.appendDuration();
-        message.appendOpenLink();
-        if (includeTestSummary) {
-            message.appendTestSummary(includeFailedTests);
+        /**
+         * Renders the change set until {@code budget} characters are used. A build without changes shows
+         * the changes of the build that triggered it.
+         */
+        String getCommitList(Run r, int budget) {
+            CommitList commits = getCommits(r, new HashSet<String>(), 0);
+            return (commits != null ? commits : CommitList.NONE).render(budget);
         }
-        if (includeCustomMessage) {
-            message.appendCustomMessage();
-        }
-        if (notifier.getCommitInfoChoice().showAnything()){
-            message.appendCommitMessage(r);
-        }
-        return message.toString();
-    }
-    String getChanges(AbstractBuild r, boolean includeCustomMessage) {
-        if (!r.hasChangeSetComputed()) {
-            logger.info("No change set computed...");
-            return null;
-        }
-        ChangeLogSet changeSet = r.getChangeSet();
-        List<Entry> entries = new LinkedList<Entry>();
-        Set<AffectedFile> files = new HashSet<AffectedFile>();
-        for (Object o : changeSet.getItems()) {
-            Entry entry = (Entry) o;
-            logger.info("Entry " + o);
-            entries.add(entry);
-            files.addAll(entry.getAffectedFiles());
-        }
-        if (entries.isEmpty()) {
-            logger.info("Empty change...");
-            return null;
-        }
-        Set<String> authors = new HashSet<String>();
-        for (Entry entry : entries) {
-            authors.add(entry.getAuthor().getDisplayName());
-        }
-        MessageBuilder message = new MessageBuilder(notifier, r);
-        message.append("Started by changes from ");
-        message.append(StringUtils.join(authors, ", "));
-        message.append(" (");
-        message.append(files.size());
-        message.append(" file(s) changed)");
-        message.appendOpenLink();
-        if (includeCustomMessage) {
-            message.appendCustomMessage();
-        }
-        return message.toString();
-    }
-    public static class MessageBuilder {
 
-        public void appendCommitMessage(AbstractBuild r) {
-            message.append("\n");
-            message.append("<b>Changes:</b>\n");
-            message.append(getCommitList(r));
-        }
-        String getCommitList(AbstractBuild r) {
-            ChangeLogSet changeSet = r.getChangeSet();
-            List<Entry> entries = new LinkedList<Entry>();
-            for (Object o : changeSet.getItems()) {
-                Entry entry = (Entry) o;
-                logger.info("Entry " + o);
-                entries.add(entry);
+        /**
+         * @return {@code null} if the upstream chain was cut short by a cycle or {@link #MAX_UPSTREAM_DEPTH},
+         * such a result depends on where the search started and is not cached
+         */
+        private CommitList getCommits(Run<?, ?> r, Set<String> visited, int depth) {
+            if (!visited.add(r.getParent().getFullName() + '#' + r.getNumber())) {
+                return null;
             }
-            if (entries.isEmpty()) {
-                logger.info("Empty change...");
-                Cause.UpstreamCause c = (Cause.UpstreamCause)r.getCause(Cause.UpstreamCause.class);
-                if (c == null) {
-                    return "No Changes.";
-                }
-                String upProjectName = c.getUpstreamProject();
-                int buildNumber = c.getUpstreamBuild();
-                try {
-
-
-                    AbstractProject project = Hudson.getInstance().getItemByFullName(upProjectName, AbstractProject.class);
-                    AbstractBuild upBuild = (AbstractBuild) project.getBuildByNumber(buildNumber);
-                    return getCommitList(upBuild);
-                }catch(NullPointerException npe){
-                    return "No Changes.";
+            Iterator<?> entries = ChangeSets.entries(r);
+            if (entries.hasNext()) {
+                return collectCommits(entries, MAX_MESSAGE_LENGTH);
+            }
+            logger.fine("Empty change...");
+            Cause.UpstreamCause c = (Cause.UpstreamCause)r.getCause(Cause.UpstreamCause.class);
+            if (c == null) {
+                return CommitList.NONE;
+            }
+            if (depth >= MAX_UPSTREAM_DEPTH) {
+                return null;
+            }
+            CommitListCache.Key key = new CommitListCache.Key(c.getUpstreamProject(), c.getUpstreamBuild(),
+                    commitInfoChoice);
+            CommitList commits = CommitListCache.get().get(key);
+            if (commits != null) {
+                return commits;
+            }
+            commits = CommitList.NONE;
+            Jenkins jenkins = Jenkins.getInstance();
+            Job<?, ?> project = jenkins != null
+                    ? jenkins.getItemByFullName(c.getUpstreamProject(), Job.class) : null;
+            if (project != null) {
+                Run<?, ?> upBuild = project.getBuildByNumber(c.getUpstreamBuild());
+                if (upBuild != null) {
+                    commits = getCommits(upBuild, visited, depth + 1);
                 }
             }
-            Set<String> commits = new HashSet<String>();
-            for (Entry entry : entries) {
-                StringBuffer commit = new StringBuffer();
-                CommitInfoChoice commitInfoChoice = notifier.getCommitInfoChoice();
+            if (commits != null) {
+                CommitListCache.get().put(key, commits);
+            }
+            return commits;
+        }
+
+        /**
+         * Streams the change set entries, rendering them until the budget is used and counting the rest.
+         */
+        private CommitList collectCommits(Iterator<?> entries, int budget) {
+            CommitList.Collector commits = new CommitList.Collector(budget);
+            Set<String> seen = new HashSet<String>();
+            StringBuilder commit = new StringBuilder();
+            while (entries.hasNext()) {
+                Entry entry = (Entry) entries.next();
+                if (commits.isFull()) {
+                    commits.skip();
+                    continue;
+                }
+                if (logger.isLoggable(FINE)) {
+                    logger.fine("Entry " + entry);
+                }
+                commit.setLength(0);
                 if (commitInfoChoice.showAuthor()) {
-                    String authorName = escape(entry.getAuthor().getDisplayName());
-                    commit.append("[").append(authorName).append("]\n");
+                    escape(commit.append('['), entry.getAuthor().getDisplayName()).append("]\n");
                 }
                 if (commitInfoChoice.showTitle()) {
                     String message = escape(entry.getMsg());
@@ -234,270 +341,193 @@ public class ActiveNotifier implements FineGrainedNotifier {
                     }
                     commit.append(message.replace("- ","\n- "));
                 }
-
-                commits.add(commit.toString());
+                if (seen.add(commit.toString())) {
+                    commits.add(commit);
+                }
             }
-
-            return "\n- " + StringUtils.join(commits, "\n- ");
-        }
-
-        private enum MessageStatus{
-            STARTING,
-            BACK_TO_NORMAL,
-            STILL_FAILING,
-            SUCCESS,
-            FAILURE,
-            ABORTED,
-            UNSTABLE,
-            NOT_BUILT,
-            UNKNOWN
-        }
-
-        private static final String STARTING_STATUS_MESSAGE = "Starting...",
-                                    BACK_TO_NORMAL_STATUS_MESSAGE = "Back to normal",
-                                    STILL_FAILING_STATUS_MESSAGE = "Still Failing",
-                                    SUCCESS_STATUS_MESSAGE = "Success",
-                                    FAILURE_STATUS_MESSAGE = "Failure",
-                                    ABORTED_STATUS_MESSAGE = "Aborted",
-                                    NOT_BUILT_STATUS_MESSAGE = "Not built",
-                                    UNSTABLE_STATUS_MESSAGE = "Unstable",
-                                    UNKNOWN_STATUS_MESSAGE = "Unknown";
-
-
-        private static final String STARTING_STATUS_EMOTICON = "\u25b6",
-                                    BACK_TO_NORMAL_STATUS_EMOTICON = "\u2705",
-                                    STILL_FAILING_STATUS_EMOTICON = "\u203c",
-                                    SUCCESS_STATUS_EMOTICON = "\u2705",
-                                    FAILURE_STATUS_EMOTICON = "\u2757",
-                                    ABORTED_STATUS_EMOTICON = "\u23f9",
-                                    NOT_BUILT_STATUS_EMOTICON = "\u23ed",
-                                    UNSTABLE_STATUS_EMOTICON = "\u26a0",
-                                    UNKNOWN_STATUS_EMOTICON = "\u2753";
-
-        private StringBuffer message;
+            return commits.toCommitList();
+        }
+
+        /** Telegram rejects longer messages. */
+        static final int MAX_MESSAGE_LENGTH = MessageCoalescer.MAX_MESSAGE_LENGTH;
+        /** How many upstream causes are followed to find the changes of a build without changes. */
+        static final int MAX_UPSTREAM_DEPTH = 5;
+        /** The change list gets at least this much room, even after a long test summary. */
+        static final int MIN_COMMIT_LIST_BUDGET = 512;
+        /** Large enough for a typical build message, so the buffer rarely grows. */
+        static final int INITIAL_CAPACITY = 1024;
+        /** Failed test names are cut down to their trailing segments to stay below this length. */
+        static final int MAX_TEST_NAME_LENGTH = 60;
+
+        private StringBuilder message;
+        private CommitInfoChoice commitInfoChoice;
+        private Run<?, ?> build;
+        private BuildTransition transition;
+        /** Only set by the public constructors, for the deprecated {@code append} methods. */
         private TelegramNotifier notifier;
-        private AbstractBuild build;
+        private NotificationContext context;
 
-        public MessageBuilder(TelegramNotifier notifier, AbstractBuild build) {
+        public MessageBuilder(TelegramNotifier notifier, Run build) {
+            this(notifier, build, BuildTransition.of(build));
+        }
+
+        public MessageBuilder(TelegramNotifier notifier, Run build, BuildTransition transition) {
+            this(notifier, new NotificationContext(build, null), transition);
+        }
+
+        public MessageBuilder(TelegramNotifier notifier, NotificationContext context, BuildTransition transition) {
+            this(notifier.getCommitInfoChoice(), context, transition);
             this.notifier = notifier;
-            this.message = new StringBuffer();
-            this.build = build;
-            startMessage();
         }
 
+        MessageBuilder(CommitInfoChoice commitInfoChoice, NotificationContext context, BuildTransition transition) {
+            this.commitInfoChoice = commitInfoChoice;
+            this.message = new StringBuilder(INITIAL_CAPACITY);
+            this.build = context.getBuild();
+            this.context = context;
+            this.transition = transition;
+        }
+
+        /**
+         * @deprecated messages are laid out by templates, this renders {@code ${status}}
+         */
+        @Deprecated
         public MessageBuilder appendStatusMessage() {
-            message.append(this.escape(getStatusMessage(build)));
-            return this;
+            return appendTemplate("${status}", false, false, false);
         }
-        static MessageStatus getBuildStatus(AbstractBuild r){
-            if (r.isBuilding()) {
-                return MessageStatus.STARTING;
-            }
-            Run previousSuccessfulBuild = null;
-            Run previousBuild = null;
-            Result result = r.getResult();
-            Result previousResult;
-            try {
-                previousBuild = r.getProject().getLastBuild().getPreviousBuild();
-                previousSuccessfulBuild = r.getPreviousSuccessfulBuild();
-            }catch (NullPointerException npe){
-               return MessageStatus.UNKNOWN;
-            }
 
-            boolean buildHasSucceededBefore = previousSuccessfulBuild != null;
-
-            /*
-             * If the last build was aborted, go back to find the last non-aborted build.
-             * This is so that aborted builds do not affect build transitions.
-             * I.e. if build 1 was failure, build 2 was aborted and build 3 was a success the transition
-             * should be failure -> success (and therefore back to normal) not aborted -> success.
-             */
-            Run lastNonAbortedBuild = previousBuild;
-            while(lastNonAbortedBuild != null && lastNonAbortedBuild.getResult() == Result.ABORTED) {
-                lastNonAbortedBuild = lastNonAbortedBuild.getPreviousBuild();
-            }
+        /**
+         * @deprecated messages are laid out by templates, this renders {@code (<a href="${url}">Open</a>)}
+         */
+        @Deprecated
+        public MessageBuilder appendOpenLink() {
+            return appendTemplate(" (<a href=\"${url}\">Open</a>)", false, false, false);
+        }
 
+        /**
+         * @deprecated messages are laid out by templates, this renders {@code after ${duration}}
+         */
+        @Deprecated
+        public MessageBuilder appendDuration() {
+            return appendTemplate(" after ${duration}", false, false, false);
+        }
 
-            /* If all previous builds have been aborted, then use
-             * SUCCESS as a default status so an aborted message is sent
-             */
-            if(lastNonAbortedBuild == null) {
-                previousResult = Result.SUCCESS;
-            } else {
-                previousResult = lastNonAbortedBuild.getResult();
-            }
+        /**
+         * @deprecated messages are laid out by templates, this renders {@code ${tests}} on a new line
+         */
+        @Deprecated
+        public MessageBuilder appendTestSummary(boolean includeFailedTests) {
+            return appendTemplate("\n${tests}", true, includeFailedTests, false);
+        }
 
-            /* Back to normal should only be shown if the build has actually succeeded at some point.
-             * Also, if a build was previously unstable and has now succeeded the status should be
-             * "Back to normal"
-             */
-            if (result == Result.SUCCESS
-                    && (previousResult == Result.FAILURE || previousResult == Result.UNSTABLE)
-                    && buildHasSucceededBefore) {
-                return MessageStatus.BACK_TO_NORMAL;
-            }
-            if (result == Result.FAILURE && previousResult == Result.FAILURE) {
-                return MessageStatus.STILL_FAILING;
-            }
-            if (result == Result.SUCCESS) {
-                return MessageStatus.SUCCESS;
-            }
-            if (result == Result.FAILURE) {
-                return MessageStatus.FAILURE;
-            }
-            if (result == Result.ABORTED) {
-                return MessageStatus.ABORTED;
-            }
-            if (result == Result.NOT_BUILT) {
-                return MessageStatus.NOT_BUILT;
-            }
-            if (result == Result.UNSTABLE) {
-                return MessageStatus.UNSTABLE;
-            }
-            return MessageStatus.UNKNOWN;
-        }
-        @SuppressWarnings("Duplicates")
-        static String getStatusMessage(AbstractBuild r) {
-            MessageStatus status = getBuildStatus(r);
-            switch (status){
-
-                case STARTING:
-                    return STARTING_STATUS_MESSAGE;
-                case BACK_TO_NORMAL:
-                    return BACK_TO_NORMAL_STATUS_MESSAGE;
-                case STILL_FAILING:
-                    return STILL_FAILING_STATUS_MESSAGE;
-                case SUCCESS:
-                    return SUCCESS_STATUS_MESSAGE;
-                case FAILURE:
-                    return FAILURE_STATUS_MESSAGE;
-                case ABORTED:
-                    return ABORTED_STATUS_MESSAGE;
-                case UNSTABLE:
-                    return UNSTABLE_STATUS_MESSAGE;
-                case NOT_BUILT:
-                    return NOT_BUILT_STATUS_MESSAGE;
-                default:return UNKNOWN_STATUS_MESSAGE;
-            }
+        /**
+         * @deprecated messages are laid out by templates, this renders {@code ${customMessage}} on a new line
+         */
+        @Deprecated
+        public MessageBuilder appendCustomMessage() {
+            return appendTemplate("\n${customMessage}", false, false, true);
         }
-        @SuppressWarnings("Duplicates")
-        static String getStatusEmoticon(AbstractBuild r){
-            MessageStatus status = getBuildStatus(r);
-            switch (status){
-
-                case STARTING:
-                    return STARTING_STATUS_EMOTICON;
-                case BACK_TO_NORMAL:
-                    return BACK_TO_NORMAL_STATUS_EMOTICON;
-                case STILL_FAILING:
-                    return STILL_FAILING_STATUS_EMOTICON;
-                case SUCCESS:
-                    return SUCCESS_STATUS_EMOTICON;
-                case FAILURE:
-                    return FAILURE_STATUS_EMOTICON;
-                case ABORTED:
-                    return ABORTED_STATUS_EMOTICON;
-                case UNSTABLE:
-                    return UNSTABLE_STATUS_EMOTICON;
-                case NOT_BUILT:
-                    return NOT_BUILT_STATUS_EMOTICON;
-                default:return UNKNOWN_STATUS_EMOTICON;
-            }
+
+        /**
+         * @deprecated messages are laid out by templates, this renders {@code ${commits}} under a heading;
+         * the changes are those of the build the builder was created for
+         */
+        @Deprecated
+        public void appendCommitMessage(Run r) {
+            appendTemplate("\n<b>Changes:</b>\n${commits}", false, false, false);
         }
 
+        /**
+         * @deprecated messages are laid out by templates
+         */
+        @Deprecated
         public MessageBuilder append(String string) {
-            message.append(this.escape(string));
+            escape(message, string);
             return this;
         }
 
+        /**
+         * @deprecated messages are laid out by templates
+         */
+        @Deprecated
         public MessageBuilder append(Object string) {
-            message.append(this.escape(string.toString()));
-            return this;
-        }
-
-        private MessageBuilder startMessage() {
-            message.append(getStatusEmoticon(build)).append(" ");
-            message.append("<b>");
-            message.append(this.escape(build.getProject().getFullDisplayName()));
-            message.append(" - ");
-            message.append(this.escape(build.getDisplayName()));
-            message.append("</b>\n");
+            escape(message, string.toString());
             return this;
         }
 
-        public MessageBuilder appendOpenLink() {
-            String url = notifier.getBuildServerUrl() + build.getUrl();
-            message.append(" (<a href=\"").append(url).append("\">Open</a>)");
-
+        private MessageBuilder appendTemplate(String template, boolean includeTestSummary,
+                                              boolean includeFailedTests, boolean includeCustomMessage) {
+            MessageSections sections = MessageSections.of(notifier, includeTestSummary, includeFailedTests,
+                    includeCustomMessage);
+            MessageTemplate.cached(template).appendTo(message, new MessageValues(sections, context, transition));
             return this;
         }
 
-        public MessageBuilder appendDuration() {
-            message.append(" after ");
-            String durationString;
-            if(message.toString().contains(BACK_TO_NORMAL_STATUS_MESSAGE)){
-                durationString = createBackToNormalDurationString();
-            } else {
-                durationString = build.getDurationString();
+        String getDurationString() {
+            if(transition.getStatus() == MessageStatus.BACK_TO_NORMAL){
+                return createBackToNormalDurationString();
             }
-            message.append(durationString);
-            return this;
+            return build.getDurationString();
         }
 
-        public MessageBuilder appendTestSummary(boolean includeFailedTests) {
+        /**
+         * The test summary without the line break separating it from what comes before.
+         */
+        MessageBuilder appendTests(boolean includeFailedTests) {
             AbstractTestResultAction<?> action = this.build
                     .getAction(AbstractTestResultAction.class);
             if (action != null) {
                 int total = action.getTotalCount();
                 int failed = action.getFailCount();
                 int skipped = action.getSkipCount();
-                message.append("\n");
                 message.append("<b>Test Status:</b>\n");
-                message.append("Passed: " + (total - failed - skipped));
-                message.append(", Failed: " + failed);
-                message.append(", Skipped: " + skipped);
+                message.append("Passed: ").append(total - failed - skipped);
+                message.append(", Failed: ").append(failed);
+                message.append(", Skipped: ").append(skipped);
                 if(includeFailedTests && failed > 0){
-                    message.append("\n<b>Failed Tests:</b>\n");
+                    TelegramNotifier.DescriptorImpl settings = TelegramNotifier.globalSettings();
                     List<? extends TestResult> failedTests = action.getFailedTests();
-                    for(int i = 0; i<failedTests.size();i++){
-                        TestResult result = failedTests.get(i);
-                        String testName = result.getName();
-                        if(testName.length() > 60) {
-                            String[] splittedTestName = testName.split("\\.");
-                            testName = "";
-                            for(int j = splittedTestName.length - 1;j>=0;j--){
-                                if(testName.length() + splittedTestName[j].length() + 1 > 60) break;
-                                testName = splittedTestName[j] + "." + testName;
+                    FailedTestGrouping grouping = settings != null ? settings.getFailedTestGrouping()
+                            : FailedTestGrouping.NONE;
+                    int limit = settings != null ? settings.getFailedTestsShown()
+                            : TelegramNotifier.DescriptorImpl.DEFAULT_FAILED_TESTS_SHOWN;
+                    message.append("\n<b>Failed Tests:</b>\n");
+                    appendFailedTests(FailedTestSummary.of(failedTests, grouping, limit),
+                            grouping == FailedTestGrouping.NONE ? "tests" : "groups");
+                    if (settings != null && settings.getShowNewFailures()) {
+                        FailedTestSummary newFailures = FailedTestSummary.newFailures(failedTests, limit);
+                        if (newFailures.getTotal() > 0) {
+                            message.append("<b>New Failures:</b> ").append(newFailures.getTotal());
+                            if (!newFailures.isTotalExact()) {
+                                message.append('+');
                             }
-                            testName = testName.substring(0,testName.length()-1);
+                            message.append('\n');
+                            appendFailedTests(newFailures, "tests");
                         }
-                        message.append(escape(testName + "\n"));
-
                     }
                 }
             } else {
-                message.append("\nNo Tests found.");
+                message.append("No Tests found.");
             }
             return this;
         }
 
-        public MessageBuilder appendCustomMessage() {
-            String customMessage = notifier.getCustomMessage();
-            EnvVars envVars = new EnvVars();
-            try {
-                envVars = build.getEnvironment(new LogTaskListener(logger, INFO));
-            } catch (IOException e) {
-                logger.log(SEVERE, e.getMessage(), e);
-            } catch (InterruptedException e) {
-                logger.log(SEVERE, e.getMessage(), e);
+        private void appendFailedTests(FailedTestSummary summary, String omitted) {
+            for (FailedTestSummary.Entry entry : summary.getEntries()) {
+                escape(message, shortenTestName(entry.getName()));
+                if (entry.getCount() > 1) {
+                    message.append(" (").append(entry.getCount()).append(')');
+                }
+                message.append('\n');
+            }
+            if (summary.getOmitted() > 0) {
+                message.append("...and ").append(summary.getOmitted()).append(summary.isTotalExact() ? "" : "+")
+                        .append(" more ").append(omitted).append('\n');
             }
-            message.append("\n");
-            message.append(envVars.expand(customMessage));
-            return this;
         }
-        
+
         private String createBackToNormalDurationString(){
-            Run previousSuccessfulBuild = build.getPreviousSuccessfulBuild();
+            Run previousSuccessfulBuild = transition.getPreviousSuccessfulBuild();
             if(previousSuccessfulBuild == null) return "";
             long previousSuccessStartTime = previousSuccessfulBuild.getStartTimeInMillis();
             long previousSuccessDuration = previousSuccessfulBuild.getDuration();
@@ -509,14 +539,75 @@ public class ActiveNotifier implements FineGrainedNotifier {
             return Util.getTimeSpanString(backToNormalDuration);
         }
 
-        public String escape(String string) {
-            string = string.replace("&", "&amp;");
-            string = string.replace("<", "&lt;");
-            string = string.replace(">", "&gt;");
-
+        /**
+         * Keeps as many trailing dot-separated segments of a test name as fit below
+         * {@link #MAX_TEST_NAME_LENGTH}, the last segment is always kept.
+         */
+        static String shortenTestName(String name) {
+            if (name.length() <= MAX_TEST_NAME_LENGTH) {
+                return name;
+            }
+            int start = name.lastIndexOf('.');
+            while (start > 0) {
+                int previous = name.lastIndexOf('.', start - 1);
+                if (name.length() - previous - 1 >= MAX_TEST_NAME_LENGTH) {
+                    break;
+                }
+                start = previous;
+            }
+            return name.substring(start + 1);
+        }
+
+        /**
+         * Escapes the characters reserved by Telegram's HTML parse mode, and quotes so the result can
+         * also be used as an attribute value.
+         *
+         * @return the string itself if nothing had to be escaped
+         */
+        public static String escape(String string) {
+            for (int i = 0; i < string.length(); i++) {
+                if (replacement(string.charAt(i)) != null) {
+                    StringBuilder escaped = new StringBuilder(string.length() + 16).append(string, 0, i);
+                    return escape(escaped, string, i).toString();
+                }
+            }
             return string;
         }
 
+        /**
+         * Appends the string to {@code out} with the reserved characters escaped, in a single pass.
+         */
+        static StringBuilder escape(StringBuilder out, String string) {
+            return escape(out, string, 0);
+        }
+
+        private static StringBuilder escape(StringBuilder out, String string, int from) {
+            int start = from;
+            for (int i = from; i < string.length(); i++) {
+                String replacement = replacement(string.charAt(i));
+                if (replacement != null) {
+                    out.append(string, start, i).append(replacement);
+                    start = i + 1;
+                }
+            }
+            return out.append(string, start, string.length());
+        }
+
+        private static String replacement(char c) {
+            switch (c) {
+                case '&':
+                    return "&amp;";
+                case '<':
+                    return "&lt;";
+                case '>':
+                    return "&gt;";
+                case '"':
+                    return "&quot;";
+                default:
+                    return null;
+            }
+        }
+
         public String toString() {
             return message.toString();
         }
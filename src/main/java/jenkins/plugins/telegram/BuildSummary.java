@@ -0,0 +1,40 @@
+package jenkins.plugins.telegram;
+
+/**
+ * Rendered completion notice of a build, together with what is needed to list it in a digest.
+ */
+public final class BuildSummary {
+    private final String emoticon;
+    private final String title;
+    private final String url;
+    private final String message;
+
+    public BuildSummary(String emoticon, String title, String url, String message) {
+        this.emoticon = emoticon;
+        this.title = title;
+        this.url = url;
+        this.message = message;
+    }
+
+    public String getEmoticon() {
+        return emoticon;
+    }
+
+    /**
+     * Plain text such as {@code "project - #12"}, not escaped yet.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * The full notification as it would be sent on its own.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,129 @@
+package jenkins.plugins.telegram;
+
+import hudson.model.Result;
+import hudson.model.Run;
+
+/**
+ * How a build's result relates to the builds before it.
+ * <p>
+ * Computed once per notification and shared by the notification filter, the status text and
+ * emoticon and the back-to-normal duration, so the build history is walked a single time.
+ * Each step back may load a build from disk, so the walk stops after {@link #MAX_HISTORY_DEPTH} builds.
+ */
+public final class BuildTransition {
+
+    /** Maximum number of earlier builds looked at. */
+    static final int MAX_HISTORY_DEPTH = 100;
+
+    private final Result result;
+    private final Result previousResult;
+    private final Run<?, ?> previousSuccessfulBuild;
+    private final MessageStatus status;
+
+    BuildTransition(Result result, Result previousResult, Run<?, ?> previousSuccessfulBuild, boolean building) {
+        this.result = result;
+        this.previousResult = previousResult;
+        this.previousSuccessfulBuild = previousSuccessfulBuild;
+        this.status = building ? MessageStatus.STARTING : statusOf(result, previousResult, previousSuccessfulBuild != null);
+    }
+
+    public static BuildTransition of(Run<?, ?> build) {
+        if (build.isBuilding()) {
+            return new BuildTransition(null, null, null, true);
+        }
+        Result result = build.getResult();
+        /*
+         * If the last build was aborted, go back to find the last non-aborted build.
+         * This is so that aborted builds do not affect build transitions.
+         * I.e. if build 1 was failure, build 2 was aborted and build 3 was a success the transition
+         * should be failure -> success (and therefore back to normal) not aborted -> success.
+         */
+        Result previousResult = null;
+        Run<?, ?> previousSuccessfulBuild = null;
+        Run<?, ?> previous = build.getPreviousCompletedBuild();
+        for (int depth = 0; previous != null && depth < MAX_HISTORY_DEPTH; depth++) {
+            Result earlier = previous.getResult();
+            if (earlier == Result.SUCCESS) {
+                previousSuccessfulBuild = previous;
+            }
+            if (previousResult == null && earlier != Result.ABORTED) {
+                previousResult = earlier;
+            }
+            // the last success is only needed to tell "back to normal" apart from a plain success
+            if (previousResult != null && (previousSuccessfulBuild != null || !isRecovery(result, previousResult))) {
+                break;
+            }
+            previous = previous.getPreviousCompletedBuild();
+        }
+        /* If all previous builds have been aborted, then use
+         * SUCCESS as a default status so an aborted message is sent
+         */
+        if (previousResult == null) {
+            previousResult = Result.SUCCESS;
+        }
+        return new BuildTransition(result, previousResult, previousSuccessfulBuild, false);
+    }
+
+    private static boolean isRecovery(Result result, Result previousResult) {
+        return result == Result.SUCCESS
+                && (previousResult == Result.FAILURE || previousResult == Result.UNSTABLE);
+    }
+
+    private static MessageStatus statusOf(Result result, Result previousResult, boolean hasSucceededBefore) {
+        /* Back to normal should only be shown if the build has actually succeeded at some point.
+         * Also, if a build was previously unstable and has now succeeded the status should be
+         * "Back to normal"
+         */
+        if (isRecovery(result, previousResult) && hasSucceededBefore) {
+            return MessageStatus.BACK_TO_NORMAL;
+        }
+        if (result == Result.FAILURE && previousResult == Result.FAILURE) {
+            return MessageStatus.STILL_FAILING;
+        }
+        if (result == Result.SUCCESS) {
+            return MessageStatus.SUCCESS;
+        }
+        if (result == Result.FAILURE) {
+            return MessageStatus.FAILURE;
+        }
+        if (result == Result.ABORTED) {
+            return MessageStatus.ABORTED;
+        }
+        if (result == Result.NOT_BUILT) {
+            return MessageStatus.NOT_BUILT;
+        }
+        if (result == Result.UNSTABLE) {
+            return MessageStatus.UNSTABLE;
+        }
+        return MessageStatus.UNKNOWN;
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    /**
+     * Result of the last earlier build that was not aborted, {@code SUCCESS} if there is none.
+     */
+    public Result getPreviousResult() {
+        return previousResult;
+    }
+
+    /**
+     * Whether the build recovered from a failed or unstable build.
+     */
+    public boolean isRecovery() {
+        return isRecovery(result, previousResult);
+    }
+
+    /**
+     * The last successful build before this one, if it was needed and found within the walk depth.
+     */
+    public Run<?, ?> getPreviousSuccessfulBuild() {
+        return previousSuccessfulBuild;
+    }
+
+    public MessageStatus getStatus() {
+        return status;
+    }
+}
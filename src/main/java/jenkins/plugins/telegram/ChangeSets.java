@@ -0,0 +1,73 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.collect.Iterators;
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.scm.ChangeLogSet;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the changes of any kind of run. A freestyle build has one change set, a pipeline run has one
+ * per checkout; the latter is looked up reflectively since the workflow plugins are optional.
+ */
+final class ChangeSets {
+
+    private static final Logger logger = Logger.getLogger(ChangeSets.class.getName());
+
+    private ChangeSets() {
+    }
+
+    /**
+     * Whether the changes of the run are known yet. Pipeline runs add their change sets as they check out.
+     */
+    @SuppressWarnings("rawtypes")
+    static boolean isComputed(Run<?, ?> run) {
+        return !(run instanceof AbstractBuild) || ((AbstractBuild) run).hasChangeSetComputed();
+    }
+
+    /**
+     * Streams the {@link ChangeLogSet.Entry entries} of all change sets of the run.
+     */
+    @SuppressWarnings("rawtypes")
+    static Iterator<?> entries(Run<?, ?> run) {
+        if (run instanceof AbstractBuild) {
+            return ((AbstractBuild) run).getChangeSet().iterator();
+        }
+        List<ChangeLogSet<?>> changeSets = of(run);
+        if (changeSets.size() == 1) {
+            return changeSets.get(0).iterator();
+        }
+        List<Iterator<?>> iterators = new ArrayList<Iterator<?>>(changeSets.size());
+        for (ChangeLogSet<?> changeSet : changeSets) {
+            iterators.add(changeSet.iterator());
+        }
+        return Iterators.concat((Iterator) iterators.iterator());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ChangeLogSet<?>> of(Run<?, ?> run) {
+        try {
+            Method getChangeSets = run.getClass().getMethod("getChangeSets");
+            Object changeSets = getChangeSets.invoke(run);
+            if (changeSets instanceof Collection) {
+                return new ArrayList<ChangeLogSet<?>>((Collection<ChangeLogSet<?>>) changeSets);
+            }
+        } catch (NoSuchMethodException e) {
+            // a run type without changes
+        } catch (IllegalAccessException e) {
+            logger.log(Level.FINE, "Could not read the changes of " + run, e);
+        } catch (InvocationTargetException e) {
+            logger.log(Level.FINE, "Could not read the changes of " + run, e.getCause());
+        }
+        return Collections.emptyList();
+    }
+}
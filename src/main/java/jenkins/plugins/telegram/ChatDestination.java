@@ -0,0 +1,86 @@
+package jenkins.plugins.telegram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A chat to notify, optionally narrowed to a topic of a forum supergroup: {@code chat} or
+ * {@code chat:topic}, e.g. {@code -1001234567890:42} or {@code @builds}.
+ */
+public final class ChatDestination {
+
+    private final String chatId;
+    private final String topic;
+
+    ChatDestination(String chatId, String topic) {
+        this.chatId = chatId;
+        this.topic = topic;
+    }
+
+    public static ChatDestination parse(String destination) {
+        String trimmed = destination.trim();
+        int separator = trimmed.lastIndexOf(':');
+        if (separator > 0 && separator < trimmed.length() - 1 && isNumber(trimmed.substring(separator + 1))) {
+            return new ChatDestination(trimmed.substring(0, separator), trimmed.substring(separator + 1));
+        }
+        return new ChatDestination(trimmed, null);
+    }
+
+    /**
+     * Reads a list of destinations separated by commas, semicolons or whitespace, without duplicates.
+     */
+    public static List<ChatDestination> parseList(String destinations) {
+        Set<String> seen = new LinkedHashSet<String>();
+        List<ChatDestination> parsed = new ArrayList<ChatDestination>();
+        if (destinations == null) {
+            return parsed;
+        }
+        for (String destination : destinations.split("[,;\\s]+")) {
+            if (destination.length() > 0 && seen.add(destination)) {
+                parsed.add(parse(destination));
+            }
+        }
+        return parsed;
+    }
+
+    private static boolean isNumber(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getChatId() {
+        return chatId;
+    }
+
+    /**
+     * Forum topic ({@code message_thread_id}) to post into, {@code null} for the chat itself.
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ChatDestination)) {
+            return false;
+        }
+        ChatDestination other = (ChatDestination) o;
+        return chatId.equals(other.chatId) && (topic == null ? other.topic == null : topic.equals(other.topic));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * chatId.hashCode() + (topic != null ? topic.hashCode() : 0);
+    }
+
+    @Override
+    public String toString() {
+        return topic != null ? chatId + ':' + topic : chatId;
+    }
+}
@@ -0,0 +1,121 @@
+package jenkins.plugins.telegram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rendered lines of a change set, cut off at a character budget, plus how many entries did not fit.
+ * Immutable, so it can be rendered again for a smaller budget, e.g. from the {@link CommitListCache}.
+ */
+final class CommitList {
+
+    static final CommitList NONE = new CommitList(Collections.<String>emptyList(), 0);
+
+    /** Room kept for the "...and N more" line. */
+    private static final int MORE_LINE_LENGTH = 32;
+
+    private final List<String> lines;
+    private final int omitted;
+
+    CommitList(List<String> lines, int omitted) {
+        this.lines = lines;
+        this.omitted = omitted;
+    }
+
+    boolean isEmpty() {
+        return lines.isEmpty() && omitted == 0;
+    }
+
+    String render(int budget) {
+        if (isEmpty()) {
+            return "No Changes.";
+        }
+        int limit = budget - MORE_LINE_LENGTH;
+        StringBuilder list = new StringBuilder(Math.min(budget, ActiveNotifier.MessageBuilder.INITIAL_CAPACITY));
+        int shown = 0;
+        for (String line : lines) {
+            if (list.length() + 3 + line.length() <= limit) {
+                list.append("\n- ").append(line);
+            } else if (shown == 0) {
+                // a single huge commit message still shows its beginning
+                appendTruncated(list.append("\n- "), line, limit - 3);
+            } else {
+                break;
+            }
+            shown++;
+        }
+        int more = lines.size() - shown + omitted;
+        if (more > 0) {
+            list.append("\n...and ").append(more).append(" more");
+        }
+        return list.toString();
+    }
+
+    /**
+     * Collects lines until {@code budget} characters are used; further lines are only counted.
+     */
+    static final class Collector {
+        private final int limit;
+        private final List<String> lines = new ArrayList<String>();
+        private int length;
+        private int omitted;
+
+        Collector(int budget) {
+            this.limit = budget - MORE_LINE_LENGTH;
+        }
+
+        boolean isFull() {
+            return omitted > 0;
+        }
+
+        void add(CharSequence line) {
+            if (omitted > 0) {
+                omitted++;
+            } else if (length + 3 + line.length() <= limit) {
+                lines.add(line.toString());
+                length += 3 + line.length();
+            } else if (lines.isEmpty()) {
+                StringBuilder truncated = new StringBuilder(Math.max(0, limit));
+                appendTruncated(truncated, line, limit - 3);
+                lines.add(truncated.toString());
+                length = limit;
+            } else {
+                omitted = 1;
+            }
+        }
+
+        /** Counts an entry that is not rendered because the budget is used up. */
+        void skip() {
+            omitted++;
+        }
+
+        CommitList toCommitList() {
+            return new CommitList(lines, omitted);
+        }
+    }
+
+    /**
+     * Appends at most {@code length} characters of escaped text without cutting an entity in half.
+     */
+    static void appendTruncated(StringBuilder out, CharSequence text, int length) {
+        int end = Math.max(0, Math.min(length, text.length()));
+        int entity = lastIndexOf(text, '&', end);
+        if (entity >= 0 && lastIndexOf(text, ';', end) < entity) {
+            end = entity;
+        }
+        out.append(text, 0, end);
+        if (end < text.length()) {
+            out.append("...");
+        }
+    }
+
+    private static int lastIndexOf(CharSequence text, char c, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
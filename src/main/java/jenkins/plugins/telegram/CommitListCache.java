@@ -0,0 +1,96 @@
+package jenkins.plugins.telegram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small LRU cache of commit lists resolved through upstream causes.
+ * <p>
+ * A fan-out pipeline triggers many downstream builds from one upstream build; without the cache each
+ * of them loads that build from disk and renders the same list again. Lists are always collected for the
+ * largest budget, and a search cut short by a cycle or the depth limit is not cached, so an entry does not
+ * depend on the build that asked first.
+ */
+final class CommitListCache {
+
+    static final int MAX_ENTRIES = 256;
+    static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final CommitListCache instance = new CommitListCache(MAX_ENTRIES, TTL_MILLIS);
+
+    private final long ttlMillis;
+    private final Map<Key, Cached> entries;
+
+    CommitListCache(final int maxEntries, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    static CommitListCache get() {
+        return instance;
+    }
+
+    synchronized CommitList get(Key key) {
+        Cached cached = entries.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - cached.created > ttlMillis) {
+            entries.remove(key);
+            return null;
+        }
+        return cached.commits;
+    }
+
+    synchronized void put(Key key, CommitList commits) {
+        entries.put(key, new Cached(commits, System.currentTimeMillis()));
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Cached {
+        final CommitList commits;
+        final long created;
+
+        Cached(CommitList commits, long created) {
+            this.commits = commits;
+            this.created = created;
+        }
+    }
+
+    static final class Key {
+        private final String project;
+        private final int build;
+        private final CommitInfoChoice commitInfoChoice;
+
+        Key(String project, int build, CommitInfoChoice commitInfoChoice) {
+            this.project = project;
+            this.build = build;
+            this.commitInfoChoice = commitInfoChoice;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return build == other.build && project.equals(other.project) && commitInfoChoice == other.commitInfoChoice;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = project.hashCode();
+            hash = 31 * hash + build;
+            return 31 * hash + (commitInfoChoice != null ? commitInfoChoice.hashCode() : 0);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.PostMethod;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Fallback transport on the commons-httpclient 3 client the plugin used before, selected with
+ * {@code -Djenkins.plugins.telegram.StandardTelegramService.legacyTransport=true}. It posts on the
+ * calling thread, so it does block a dispatcher sender thread for the round trip.
+ */
+final class CommonsHttpTransport implements TelegramTransport {
+
+    private final HttpClient client;
+
+    /**
+     * Uses the shared {@link TelegramHttpClient}.
+     */
+    CommonsHttpTransport() {
+        this(null);
+    }
+
+    CommonsHttpTransport(HttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public ListenableFuture<TelegramResponse> post(String url, Map<String, String> parameters) {
+        HttpClient httpClient = client != null ? client : TelegramHttpClient.get();
+        PostMethod post = new PostMethod(url);
+        post.getParams().setContentCharset("UTF-8");
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            post.addParameter(parameter.getKey(), parameter.getValue());
+        }
+        try {
+            int responseCode = httpClient.executeMethod(post);
+            return Futures.immediateFuture(TelegramResponse.parse(responseCode, post.getResponseBodyAsString()));
+        } catch (IOException e) {
+            return Futures.immediateFuture(TelegramResponse.failed(e));
+        } finally {
+            // hand the connection back to the shared pool
+            post.releaseConnection();
+        }
+    }
+}
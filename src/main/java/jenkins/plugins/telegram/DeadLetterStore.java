@@ -0,0 +1,217 @@
+package jenkins.plugins.telegram;
+
+import hudson.XmlFile;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Notifications that could not be delivered, kept in {@code JENKINS_HOME/telegram/dead-letters.xml}
+ * until an administrator replays or discards them.
+ * <p>
+ * New letters are saved in batches at most every {@link #SAVE_DELAY_MILLIS}, so an outage that gives up
+ * on many messages does not rewrite the file for each of them. Letters keep the whole message, so a
+ * replay is formatted like the original; bot tokens are stored encrypted.
+ */
+public final class DeadLetterStore {
+
+    private static final Logger logger = Logger.getLogger(DeadLetterStore.class.getName());
+
+    /** Oldest entries are discarded beyond this size. */
+    static final int MAX_LETTERS = 1000;
+    /** How long new letters may wait to be saved, together with those following them. */
+    static final long SAVE_DELAY_MILLIS = 5000;
+
+    private static DeadLetterStore instance;
+
+    private transient XmlFile file;
+    private List<DeadLetter> letters = new ArrayList<DeadLetter>();
+    private long nextId;
+    private transient boolean saveScheduled;
+
+    private DeadLetterStore(XmlFile file) {
+        this.file = file;
+    }
+
+    public static synchronized DeadLetterStore get() {
+        if (instance == null) {
+            Jenkins jenkins = Jenkins.getInstance();
+            XmlFile file = null;
+            if (jenkins != null) {
+                file = new XmlFile(Jenkins.XSTREAM2,
+                        new File(new File(jenkins.getRootDir(), "telegram"), "dead-letters.xml"));
+            }
+            instance = new DeadLetterStore(file);
+            instance.load();
+        }
+        return instance;
+    }
+
+    /**
+     * @param editMessageId the message the text was meant to replace, {@code 0} for a new message
+     */
+    synchronized void add(String token, TelegramMessage message, long editMessageId, TelegramResponse response,
+                          int attempts) {
+        letters.add(new DeadLetter(++nextId, System.currentTimeMillis(), Secret.fromString(token), message,
+                editMessageId, response.toString(), attempts));
+        while (letters.size() > MAX_LETTERS) {
+            letters.remove(0);
+        }
+        scheduleSave();
+    }
+
+    private void scheduleSave() {
+        if (file == null || saveScheduled) {
+            return;
+        }
+        saveScheduled = true;
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Saves letters still waiting for their batch, e.g. when Jenkins shuts down.
+     */
+    synchronized void flush() {
+        if (saveScheduled) {
+            save();
+        }
+    }
+
+    public synchronized List<DeadLetter> getLetters() {
+        return Collections.unmodifiableList(new ArrayList<DeadLetter>(letters));
+    }
+
+    public synchronized int size() {
+        return letters.size();
+    }
+
+    synchronized DeadLetter remove(long id) {
+        for (Iterator<DeadLetter> it = letters.iterator(); it.hasNext(); ) {
+            DeadLetter letter = it.next();
+            if (letter.id == id) {
+                it.remove();
+                save();
+                return letter;
+            }
+        }
+        return null;
+    }
+
+    synchronized List<DeadLetter> removeAll() {
+        List<DeadLetter> removed = new ArrayList<DeadLetter>(letters);
+        letters.clear();
+        save();
+        return removed;
+    }
+
+    /**
+     * Queues the letter again, as an edit if it was one. Should it fail again it comes back as a new dead letter.
+     */
+    void replay(DeadLetter letter) {
+        StandardTelegramService service = new StandardTelegramService(Secret.toString(letter.token),
+                letter.getChatId());
+        if (letter.editMessageId > 0) {
+            TelegramDispatcher.get().submitEdit(service, letter.editMessageId, letter.message);
+        } else {
+            TelegramDispatcher.get().submit(service, letter.message);
+        }
+    }
+
+    private void load() {
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            file.unmarshal(this);
+            if (letters == null) {
+                letters = new ArrayList<DeadLetter>();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not load Telegram dead letters from " + file, e);
+        }
+    }
+
+    private void save() {
+        saveScheduled = false;
+        if (file == null) {
+            return;
+        }
+        try {
+            file.write(this);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not save Telegram dead letters to " + file, e);
+        }
+    }
+
+    public static final class DeadLetter {
+        private final long id;
+        private final long timestamp;
+        private final Secret token;
+        private final TelegramMessage message;
+        private final long editMessageId;
+        private final String reason;
+        private final int attempts;
+
+        DeadLetter(long id, long timestamp, Secret token, TelegramMessage message, long editMessageId, String reason,
+                   int attempts) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.token = token;
+            this.message = message;
+            this.editMessageId = editMessageId;
+            this.reason = reason;
+            this.attempts = attempts;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Date getDate() {
+            return new Date(timestamp);
+        }
+
+        public String getChatId() {
+            return message.getDestination().toString();
+        }
+
+        public TelegramMessage getMessage() {
+            return message;
+        }
+
+        /**
+         * The message the text was meant to replace, {@code 0} if it was a new message.
+         */
+        public long getEditMessageId() {
+            return editMessageId;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package jenkins.plugins.telegram;
+
+public enum FailedTestGrouping {
+    NONE("list the tests"),
+    CLASS("group by class"),
+    PACKAGE("group by package");
+
+    private final String displayName;
+
+    private FailedTestGrouping(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return this.displayName;
+    }
+
+    public static FailedTestGrouping forDisplayName(String displayName) {
+        for (FailedTestGrouping failedTestGrouping : values()) {
+            if (failedTestGrouping.getDisplayName().equals(displayName)) {
+                return failedTestGrouping;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,168 @@
+package jenkins.plugins.telegram;
+
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.test.TestResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The few failed tests worth showing out of a possibly huge list: the first ones, the classes or
+ * packages with the most failures, or the tests that were still passing in the previous build.
+ * <p>
+ * Counting looks at every failed test once; only the entries that end up in the message are kept.
+ */
+final class FailedTestSummary {
+
+    private final List<Entry> entries;
+    private final int total;
+    private final boolean totalExact;
+
+    private FailedTestSummary(List<Entry> entries, int total) {
+        this(entries, total, true);
+    }
+
+    private FailedTestSummary(List<Entry> entries, int total, boolean totalExact) {
+        this.entries = entries;
+        this.total = total;
+        this.totalExact = totalExact;
+    }
+
+    /**
+     * Shown entries, most failures first when grouped.
+     */
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Number of tests or groups there are in all, shown or not; a lower bound unless {@link #isTotalExact()}.
+     */
+    int getTotal() {
+        return total;
+    }
+
+    /**
+     * Whether all failed tests were looked at, otherwise there are at least {@link #getTotal()}.
+     */
+    boolean isTotalExact() {
+        return totalExact;
+    }
+
+    int getOmitted() {
+        return total - entries.size();
+    }
+
+    static FailedTestSummary of(List<? extends TestResult> failedTests, FailedTestGrouping grouping, int limit) {
+        if (grouping == FailedTestGrouping.NONE) {
+            List<Entry> entries = new ArrayList<Entry>(Math.min(limit, failedTests.size()));
+            for (int i = 0; i < failedTests.size() && i < limit; i++) {
+                entries.add(new Entry(testName(failedTests.get(i)), 1));
+            }
+            return new FailedTestSummary(entries, failedTests.size());
+        }
+        Map<String, Entry> groups = new HashMap<String, Entry>();
+        for (TestResult test : failedTests) {
+            String group = groupName(test, grouping);
+            Entry entry = groups.get(group);
+            if (entry == null) {
+                groups.put(group, new Entry(group, 1));
+            } else {
+                entry.count++;
+            }
+        }
+        return new FailedTestSummary(top(groups.values(), limit), groups.size());
+    }
+
+    /**
+     * Failed tests that passed, or did not exist, in the previous build. Each test is compared with
+     * its own previous result only, the build history is not walked.
+     * <p>
+     * Looking up previous results is not free, so the search stops at the first new failure beyond
+     * {@code limit}; the total is then a lower bound.
+     */
+    static FailedTestSummary newFailures(List<? extends TestResult> failedTests, int limit) {
+        List<Entry> entries = new ArrayList<Entry>(Math.min(limit, failedTests.size()));
+        int total = 0;
+        for (TestResult test : failedTests) {
+            TestResult previous = test.getPreviousResult();
+            if (previous == null || previous.isPassed()) {
+                if (total++ == limit) {
+                    return new FailedTestSummary(entries, total, false);
+                }
+                entries.add(new Entry(testName(test), 1));
+            }
+        }
+        return new FailedTestSummary(entries, total);
+    }
+
+    private static String testName(TestResult test) {
+        return test instanceof CaseResult ? ((CaseResult) test).getFullName() : test.getName();
+    }
+
+    private static String groupName(TestResult test, FailedTestGrouping grouping) {
+        String className;
+        if (test instanceof CaseResult) {
+            className = ((CaseResult) test).getClassName();
+        } else {
+            String name = test.getName();
+            int dot = name.lastIndexOf('.');
+            className = dot > 0 ? name.substring(0, dot) : name;
+        }
+        if (grouping == FailedTestGrouping.PACKAGE) {
+            int dot = className.lastIndexOf('.');
+            return dot > 0 ? className.substring(0, dot) : "(root)";
+        }
+        return className;
+    }
+
+    /**
+     * Picks the {@code limit} largest groups with a bounded heap instead of sorting all of them.
+     */
+    static List<Entry> top(Iterable<Entry> groups, int limit) {
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(limit + 1, BY_COUNT);
+        for (Entry group : groups) {
+            heap.add(group);
+            if (heap.size() > limit) {
+                heap.poll();
+            }
+        }
+        List<Entry> top = new ArrayList<Entry>(heap);
+        Collections.sort(top, Collections.reverseOrder(BY_COUNT));
+        return top;
+    }
+
+    /** Fewest failures first, ties broken by name so the result does not depend on hash order. */
+    private static final Comparator<Entry> BY_COUNT = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.count != b.count) {
+                return a.count < b.count ? -1 : 1;
+            }
+            return b.name.compareTo(a.name);
+        }
+    };
+
+    static final class Entry {
+        private final String name;
+        private int count;
+
+        Entry(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package jenkins.plugins.telegram;
+
+public enum LongMessagePolicy {
+    SPLIT("split into several messages"),
+    TRUNCATE("truncate with a note");
+
+    private final String displayName;
+
+    private LongMessagePolicy(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return this.displayName;
+    }
+
+    public static LongMessagePolicy forDisplayName(String displayName) {
+        for (LongMessagePolicy longMessagePolicy : values()) {
+            if (longMessagePolicy.getDisplayName().equals(displayName)) {
+                return longMessagePolicy;
+            }
+        }
+        return null;
+    }
+}
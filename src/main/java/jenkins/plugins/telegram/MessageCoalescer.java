@@ -0,0 +1,194 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import jenkins.model.Jenkins;
+import jenkins.plugins.telegram.ActiveNotifier.MessageBuilder;
+import jenkins.util.Timer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges build notices for the same chat that arrive within a short window into one digest.
+ * <p>
+ * When a shared library change triggers hundreds of downstream jobs, the chat receives a single
+ * "37 builds finished: 30 ✅ 5 ❗ 2 ⚠" message with links instead of one message per build.
+ * A window of zero disables coalescing.
+ * <p>
+ * Notices reach the {@link Outbox} only when their batch is flushed. Batches are flushed on shutdown,
+ * but the notices still buffered when Jenkins crashes or is killed are lost.
+ */
+final class MessageCoalescer {
+
+    static final int DEFAULT_MAX_BATCH = 50;
+    /** Telegram rejects texts longer than this. */
+    static final int MAX_MESSAGE_LENGTH = 4096;
+
+    private static MessageCoalescer instance;
+
+    private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<String, Batch>();
+    private volatile long windowMillis;
+    private volatile int maxBatch;
+
+    MessageCoalescer(long windowMillis, int maxBatch) {
+        this.windowMillis = windowMillis;
+        this.maxBatch = maxBatch;
+    }
+
+    static synchronized MessageCoalescer get() {
+        if (instance == null) {
+            Jenkins jenkins = Jenkins.getInstance();
+            TelegramNotifier.DescriptorImpl descriptor = jenkins != null
+                    ? jenkins.getDescriptorByType(TelegramNotifier.DescriptorImpl.class) : null;
+            if (descriptor != null) {
+                instance = new MessageCoalescer(TimeUnit.SECONDS.toMillis(descriptor.getCoalesceWindow()),
+                        descriptor.getCoalesceMaxMessages());
+            } else {
+                instance = new MessageCoalescer(0, DEFAULT_MAX_BATCH);
+            }
+        }
+        return instance;
+    }
+
+    void configure(long windowMillis, int maxBatch) {
+        this.windowMillis = windowMillis;
+        this.maxBatch = maxBatch;
+    }
+
+    ListenableFuture<Boolean> submit(StandardTelegramService service, BuildSummary summary) {
+        long window = windowMillis;
+        if (window <= 0) {
+            return service.enqueue(summary.getMessage());
+        }
+        String key = service.getToken() + '\n' + service.getChatId();
+        while (true) {
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                final Batch created = new Batch(key, service);
+                batch = batches.putIfAbsent(key, created);
+                if (batch == null) {
+                    batch = created;
+                    Timer.get().schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(created);
+                        }
+                    }, window, TimeUnit.MILLISECONDS);
+                }
+            }
+            int size = batch.add(summary);
+            if (size > 0) {
+                if (size >= maxBatch) {
+                    flush(batch);
+                }
+                return batch.result;
+            }
+            // the batch was flushed concurrently, start a new one
+        }
+    }
+
+    /**
+     * Sends everything that is still buffered, e.g. on shutdown.
+     */
+    void flushAll() {
+        for (Batch batch : batches.values()) {
+            flush(batch);
+        }
+    }
+
+    private void flush(final Batch batch) {
+        batches.remove(batch.key, batch);
+        List<BuildSummary> summaries = batch.close();
+        if (summaries == null) {
+            return;
+        }
+        String text = summaries.size() == 1 ? summaries.get(0).getMessage() : digest(summaries);
+        Futures.addCallback(batch.service.enqueue(text), new FutureCallback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean result) {
+                batch.result.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                batch.result.setException(t);
+            }
+        });
+    }
+
+    /**
+     * Renders a digest of several builds, staying within Telegram's message length limit.
+     */
+    static String digest(List<BuildSummary> summaries) {
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        for (BuildSummary summary : summaries) {
+            Integer count = counts.get(summary.getEmoticon());
+            counts.put(summary.getEmoticon(), count == null ? 1 : count + 1);
+        }
+        StringBuilder digest = new StringBuilder(MAX_MESSAGE_LENGTH);
+        digest.append("<b>").append(summaries.size()).append(" builds finished:</b>");
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            digest.append(' ').append(count.getValue()).append(' ').append(count.getKey());
+        }
+        digest.append('\n');
+
+        // leave room for the "...and N more" line
+        int budget = MAX_MESSAGE_LENGTH - 32;
+        int listed = 0;
+        for (BuildSummary summary : summaries) {
+            int mark = digest.length();
+            digest.append('\n').append(summary.getEmoticon()).append(" <a href=\"");
+            MessageBuilder.escape(digest, summary.getUrl()).append("\">");
+            MessageBuilder.escape(digest, summary.getTitle()).append("</a>");
+            if (digest.length() > budget) {
+                digest.setLength(mark);
+                break;
+            }
+            listed++;
+        }
+        if (listed < summaries.size()) {
+            digest.append("\n...and ").append(summaries.size() - listed).append(" more");
+        }
+        return digest.toString();
+    }
+
+    private static final class Batch {
+        final String key;
+        final StandardTelegramService service;
+        final SettableFuture<Boolean> result = SettableFuture.create();
+        private List<BuildSummary> summaries = new ArrayList<BuildSummary>();
+
+        Batch(String key, StandardTelegramService service) {
+            this.key = key;
+            this.service = service;
+        }
+
+        /**
+         * @return the new batch size, or {@code 0} if the batch was already flushed
+         */
+        synchronized int add(BuildSummary summary) {
+            if (summaries == null) {
+                return 0;
+            }
+            summaries.add(summary);
+            return summaries.size();
+        }
+
+        /**
+         * @return the buffered summaries, or {@code null} if the batch was already flushed
+         */
+        synchronized List<BuildSummary> close() {
+            List<BuildSummary> closed = summaries;
+            summaries = null;
+            return closed;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package jenkins.plugins.telegram;
+
+import jenkins.model.JenkinsLocationConfiguration;
+
+/**
+ * What a message shows besides the build itself: where its link points, which details of the commits
+ * it lists and whether it includes the test summary and the custom message.
+ */
+final class MessageSections {
+
+    private final String buildServerUrl;
+    private final CommitInfoChoice commitInfoChoice;
+    private final boolean includeTestSummary;
+    private final boolean includeFailedTests;
+    /** {@code null} if the custom message is left out. */
+    private final MessageTemplate customMessage;
+
+    private MessageSections(String buildServerUrl, CommitInfoChoice commitInfoChoice, boolean includeTestSummary,
+                            boolean includeFailedTests, MessageTemplate customMessage) {
+        this.buildServerUrl = buildServerUrl;
+        this.commitInfoChoice = commitInfoChoice;
+        this.includeTestSummary = includeTestSummary;
+        this.includeFailedTests = includeFailedTests;
+        this.customMessage = customMessage;
+    }
+
+    /**
+     * The sections a notifier configures, with the test summary and the custom message as given.
+     */
+    static MessageSections of(TelegramNotifier notifier, boolean includeTestSummary, boolean includeFailedTests,
+                              boolean includeCustomMessage) {
+        return new MessageSections(notifier.getBuildServerUrl(), notifier.getCommitInfoChoice(), includeTestSummary,
+                includeFailedTests, includeCustomMessage ? notifier.getCustomMessageTemplate() : null);
+    }
+
+    /**
+     * The sections of a message written in a Pipeline: the global server URL, the test summary with its
+     * failures and the commit authors and titles. A job's custom message does not apply there.
+     */
+    static MessageSections ofStep() {
+        TelegramNotifier.DescriptorImpl settings = TelegramNotifier.globalSettings();
+        String buildServerUrl = settings != null ? settings.getBuildServerUrl()
+                : new JenkinsLocationConfiguration().getUrl();
+        return new MessageSections(buildServerUrl, CommitInfoChoice.AUTHORS_AND_TITLES, true, true, null);
+    }
+
+    String getBuildServerUrl() {
+        return buildServerUrl;
+    }
+
+    CommitInfoChoice getCommitInfoChoice() {
+        return commitInfoChoice;
+    }
+
+    boolean includeTestSummary() {
+        return includeTestSummary;
+    }
+
+    boolean includeFailedTests() {
+        return includeFailedTests;
+    }
+
+    boolean includeCustomMessage() {
+        return customMessage != null;
+    }
+
+    MessageTemplate getCustomMessage() {
+        return customMessage;
+    }
+}
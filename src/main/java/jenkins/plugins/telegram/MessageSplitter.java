@@ -0,0 +1,208 @@
+package jenkins.plugins.telegram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cuts HTML messages that are too long for Telegram into parts, or truncates them.
+ * <p>
+ * The text is scanned once. Tags and entities are never cut; a part preferably ends after a line
+ * break, otherwise after a space. Tags still open at a cut are closed at the end of the part and
+ * opened again at the start of the next one, so every part is valid on its own.
+ */
+final class MessageSplitter {
+
+    /** Telegram rejects texts longer than this. */
+    static final int MAX_MESSAGE_LENGTH = MessageCoalescer.MAX_MESSAGE_LENGTH;
+    /** A message is never split into more parts than this, the last one is truncated. */
+    static final int MAX_PARTS = 10;
+    /** Room kept for the truncation note. */
+    private static final int NOTE_LENGTH = 64;
+    /** Longest entity looked for, e.g. {@code &#x1F600;}. */
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    private final int limit;
+
+    MessageSplitter(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the message itself if it fits, otherwise its parts according to the policy.
+     */
+    static List<String> partsOf(String message, LongMessagePolicy policy) {
+        if (message.length() <= MAX_MESSAGE_LENGTH) {
+            return Collections.singletonList(message);
+        }
+        MessageSplitter splitter = new MessageSplitter(MAX_MESSAGE_LENGTH);
+        return policy == LongMessagePolicy.TRUNCATE
+                ? Collections.singletonList(splitter.truncate(message)) : splitter.split(message);
+    }
+
+    List<String> split(String html) {
+        return scan(html, MAX_PARTS);
+    }
+
+    String truncate(String html) {
+        return scan(html, 1).get(0);
+    }
+
+    private List<String> scan(String html, int maxParts) {
+        List<String> parts = new ArrayList<String>();
+        int n = html.length();
+        int partStart = 0;
+        String prefix = "";
+        OpenTag stack = null;
+        int newlineCut = -1;
+        OpenTag newlineStack = null;
+        int spaceCut = -1;
+        OpenTag spaceStack = null;
+        // position of the next '>', looked up again only once passed so the scan stays linear
+        int tagEnd = -1;
+        int i = 0;
+        while (i < n) {
+            boolean last = parts.size() == maxParts - 1;
+            if (last && prefix.length() + (n - partStart) <= limit) {
+                break;
+            }
+            char c = html.charAt(i);
+            int end = i + 1;
+            OpenTag after = stack;
+            if (c == '<') {
+                if (tagEnd < i) {
+                    tagEnd = html.indexOf('>', i);
+                    if (tagEnd < 0) {
+                        tagEnd = n;
+                    }
+                }
+                int close = tagEnd;
+                if (close < n) {
+                    end = close + 1;
+                    after = applyTag(stack, html, i, end);
+                }
+            } else if (c == '&') {
+                end = entityEnd(html, i);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n) {
+                end = i + 2;
+            }
+            int budget = last ? limit - NOTE_LENGTH : limit;
+            if (prefix.length() + (end - partStart) + closingLength(after) > budget) {
+                int cut;
+                OpenTag cutStack;
+                if (newlineCut > partStart) {
+                    cut = newlineCut;
+                    cutStack = newlineStack;
+                } else if (spaceCut > partStart) {
+                    cut = spaceCut;
+                    cutStack = spaceStack;
+                } else {
+                    cut = i;
+                    cutStack = stack;
+                }
+                // a single token that does not fit on its own is kept whole
+                if (cut > partStart) {
+                    StringBuilder part = new StringBuilder(prefix.length() + cut - partStart + 64);
+                    part.append(prefix).append(html, partStart, cut);
+                    appendClosing(part, cutStack);
+                    if (last) {
+                        part.append("\n<i>... ").append(n - cut).append(" more characters not shown</i>");
+                        parts.add(part.toString());
+                        return parts;
+                    }
+                    parts.add(part.toString());
+                    prefix = appendOpening(new StringBuilder(), cutStack).toString();
+                    partStart = cut;
+                    newlineCut = -1;
+                    if (spaceCut <= cut) {
+                        spaceCut = -1;
+                    }
+                    // the same token is looked at again for the new part
+                    continue;
+                }
+            }
+            stack = after;
+            if (c == '\n') {
+                newlineCut = end;
+                newlineStack = stack;
+            } else if (c == ' ') {
+                spaceCut = end;
+                spaceStack = stack;
+            }
+            i = end;
+        }
+        if (partStart < n || parts.isEmpty()) {
+            parts.add(prefix.isEmpty() && partStart == 0 ? html : prefix + html.substring(partStart));
+        }
+        return parts;
+    }
+
+    private static int entityEnd(String html, int ampersand) {
+        int max = Math.min(html.length(), ampersand + MAX_ENTITY_LENGTH);
+        for (int j = ampersand + 1; j < max; j++) {
+            char c = html.charAt(j);
+            if (c == ';') {
+                return j + 1;
+            }
+            if (!Character.isLetterOrDigit(c) && c != '#') {
+                break;
+            }
+        }
+        return ampersand + 1;
+    }
+
+    /**
+     * Returns the open tags after the tag {@code html[start, end)}.
+     */
+    private static OpenTag applyTag(OpenTag stack, String html, int start, int end) {
+        boolean closing = html.charAt(start + 1) == '/';
+        int nameStart = closing ? start + 2 : start + 1;
+        int nameEnd = nameStart;
+        while (nameEnd < end - 1 && !Character.isWhitespace(html.charAt(nameEnd)) && html.charAt(nameEnd) != '/') {
+            nameEnd++;
+        }
+        String name = html.substring(nameStart, nameEnd);
+        if (closing) {
+            return stack != null && stack.name.equalsIgnoreCase(name) ? stack.parent : stack;
+        }
+        if (html.charAt(end - 2) == '/') {
+            return stack;
+        }
+        return new OpenTag(name, html.substring(start, end), stack);
+    }
+
+    private static int closingLength(OpenTag stack) {
+        return stack != null ? stack.closingLength : 0;
+    }
+
+    private static void appendClosing(StringBuilder out, OpenTag stack) {
+        for (OpenTag tag = stack; tag != null; tag = tag.parent) {
+            out.append("</").append(tag.name).append('>');
+        }
+    }
+
+    private static StringBuilder appendOpening(StringBuilder out, OpenTag stack) {
+        if (stack != null) {
+            appendOpening(out, stack.parent).append(stack.opening);
+        }
+        return out;
+    }
+
+    /**
+     * Open tags as an immutable linked stack, so remembering them at a possible cut costs nothing.
+     */
+    private static final class OpenTag {
+        final String name;
+        final String opening;
+        final OpenTag parent;
+        /** Length of the closing tags of this tag and all its parents. */
+        final int closingLength;
+
+        OpenTag(String name, String opening, OpenTag parent) {
+            this.name = name;
+            this.opening = opening;
+            this.parent = parent;
+            this.closingLength = name.length() + 3 + (parent != null ? parent.closingLength : 0);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package jenkins.plugins.telegram;
+
+public enum MessageStatus {
+    STARTING("Starting...", "\u25b6"),
+    BACK_TO_NORMAL("Back to normal", "\u2705"),
+    STILL_FAILING("Still Failing", "\u203c"),
+    SUCCESS("Success", "\u2705"),
+    FAILURE("Failure", "\u2757"),
+    ABORTED("Aborted", "\u23f9"),
+    UNSTABLE("Unstable", "\u26a0"),
+    NOT_BUILT("Not built", "\u23ed"),
+    UNKNOWN("Unknown", "\u2753");
+
+    private final String message;
+    private final String emoticon;
+
+    private MessageStatus(String message, String emoticon) {
+        this.message = message;
+        this.emoticon = emoticon;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getEmoticon() {
+        return emoticon;
+    }
+}
@@ -0,0 +1,305 @@
+package jenkins.plugins.telegram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A text with {@code $NAME} or {@code ${NAME}} placeholders and {@code ${if NAME}...${else}...${end}}
+ * conditionals, parsed once into a tree and rendered per build without parsing again.
+ * <p>
+ * Placeholders are looked up in {@link Values}, which provide the build sections such as
+ * {@code ${status}} or {@code ${tests}} and fall back to the build environment. Like
+ * {@link hudson.EnvVars#expand}, unknown placeholders are left as they are. A conditional takes its
+ * first branch if the value is not empty, {@code ${if !NAME}} if it is.
+ */
+final class MessageTemplate {
+
+    /**
+     * Source of the placeholder values of one rendering.
+     */
+    interface Values {
+        /**
+         * @param out the text rendered so far, for values that size themselves to the room left
+         * @return the value of the placeholder, {@code null} if it is unknown
+         */
+        String get(String name, StringBuilder out);
+    }
+
+    /** Templates of the {@code telegramSend} step, which are compiled where they are used. */
+    static final int MAX_CACHED_TEMPLATES = 256;
+
+    private static final String IF = "${if ";
+    private static final String ELSE = "${else}";
+    private static final String END = "${end}";
+    private static final Node[] NO_NODES = new Node[0];
+    private static final ConcurrentMap<String, MessageTemplate> cache = new ConcurrentHashMap<String, MessageTemplate>();
+
+    private final String source;
+    private final Node[] nodes;
+    /** Every placeholder and condition name, in no particular order. */
+    private final Set<String> names;
+
+    private MessageTemplate(String source, Node[] nodes, Set<String> names) {
+        this.source = source;
+        this.nodes = nodes;
+        this.names = names;
+    }
+
+    static MessageTemplate compile(String source) {
+        String text = source != null ? source : "";
+        Parser parser = new Parser(text);
+        Node[] nodes = parser.sequence(0);
+        return new MessageTemplate(text, nodes, Collections.unmodifiableSet(parser.names));
+    }
+
+    /**
+     * Returns {@code cached} if it was compiled from {@code source}, otherwise compiles it.
+     */
+    static MessageTemplate reuse(MessageTemplate cached, String source) {
+        String text = source != null ? source : "";
+        return cached != null && cached.source.equals(text) ? cached : compile(text);
+    }
+
+    /**
+     * Compiles the source once for all callers, for templates without a configuration to keep them in.
+     */
+    static MessageTemplate cached(String source) {
+        String text = source != null ? source : "";
+        MessageTemplate template = cache.get(text);
+        if (template == null) {
+            template = compile(text);
+            if (cache.size() >= MAX_CACHED_TEMPLATES) {
+                cache.clear();
+            }
+            cache.put(text, template);
+        }
+        return template;
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * The names the template may look up, so callers can tell in advance what rendering it costs.
+     */
+    Set<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Whether the text has no placeholders, so it can be used without looking up any values.
+     */
+    boolean isConstant() {
+        return nodes.length == 0 || (nodes.length == 1 && nodes[0] instanceof Literal);
+    }
+
+    String expand(Map<String, String> values) {
+        if (isConstant()) {
+            return source;
+        }
+        return appendTo(new StringBuilder(source.length() + 64), values).toString();
+    }
+
+    StringBuilder appendTo(StringBuilder out, final Map<String, String> values) {
+        return appendTo(out, new Values() {
+            @Override
+            public String get(String name, StringBuilder out) {
+                return values.get(name);
+            }
+        });
+    }
+
+    StringBuilder appendTo(StringBuilder out, Values values) {
+        render(nodes, out, values);
+        return out;
+    }
+
+    private static void render(Node[] nodes, StringBuilder out, Values values) {
+        for (Node node : nodes) {
+            node.render(out, values);
+        }
+    }
+
+    private abstract static class Node {
+        abstract void render(StringBuilder out, Values values);
+    }
+
+    private static final class Literal extends Node {
+        private final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        @Override
+        void render(StringBuilder out, Values values) {
+            out.append(text);
+        }
+    }
+
+    private static final class Placeholder extends Node {
+        private final String name;
+        /** How the placeholder was written, kept if it has no value. */
+        private final String reference;
+
+        Placeholder(String name, String reference) {
+            this.name = name;
+            this.reference = reference;
+        }
+
+        @Override
+        void render(StringBuilder out, Values values) {
+            String value = values.get(name, out);
+            out.append(value != null ? value : reference);
+        }
+    }
+
+    private static final class Conditional extends Node {
+        private final String name;
+        private final boolean negated;
+        private final Node[] then;
+        private final Node[] otherwise;
+
+        Conditional(String name, boolean negated, Node[] then, Node[] otherwise) {
+            this.name = name;
+            this.negated = negated;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        void render(StringBuilder out, Values values) {
+            String value = values.get(name, out);
+            boolean present = value != null && !value.isEmpty();
+            MessageTemplate.render(present != negated ? then : otherwise, out, values);
+        }
+    }
+
+    private static final class Parser {
+        private final String text;
+        private final Set<String> names = new HashSet<String>();
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Parses up to the end of the text or, inside a conditional, up to its {@code ${else}} or {@code ${end}}.
+         */
+        Node[] sequence(int depth) {
+            List<Node> nodes = new ArrayList<Node>();
+            int start = pos;
+            while (pos < text.length()) {
+                if (text.charAt(pos) != '$') {
+                    pos++;
+                    continue;
+                }
+                if (depth > 0 && (text.startsWith(ELSE, pos) || text.startsWith(END, pos))) {
+                    break;
+                }
+                int end = conditionEnd(pos);
+                if (end > 0) {
+                    literal(nodes, start, pos);
+                    String condition = text.substring(pos + IF.length(), end - 1).trim();
+                    boolean negated = condition.startsWith("!");
+                    pos = end;
+                    Node[] then = sequence(depth + 1);
+                    Node[] otherwise = NO_NODES;
+                    if (text.startsWith(ELSE, pos)) {
+                        pos += ELSE.length();
+                        otherwise = sequence(depth + 1);
+                    }
+                    if (text.startsWith(END, pos)) {
+                        pos += END.length();
+                    }
+                    String name = negated ? condition.substring(1).trim() : condition;
+                    names.add(name);
+                    nodes.add(new Conditional(name, negated, then, otherwise));
+                    start = pos;
+                    continue;
+                }
+                end = referenceEnd(text, pos);
+                if (end < 0) {
+                    pos++;
+                    continue;
+                }
+                literal(nodes, start, pos);
+                boolean braced = text.charAt(pos + 1) == '{';
+                String name = braced ? text.substring(pos + 2, end - 1) : text.substring(pos + 1, end);
+                names.add(name);
+                nodes.add(new Placeholder(name, text.substring(pos, end)));
+                pos = end;
+                start = end;
+            }
+            literal(nodes, start, pos);
+            return nodes.toArray(new Node[nodes.size()]);
+        }
+
+        private void literal(List<Node> nodes, int start, int end) {
+            if (end > start) {
+                nodes.add(new Literal(text.substring(start, end)));
+            }
+        }
+
+        /**
+         * End of the {@code ${if NAME}} starting at {@code dollar}, {@code -1} if there is none.
+         */
+        private int conditionEnd(int dollar) {
+            if (!text.startsWith(IF, dollar)) {
+                return -1;
+            }
+            int close = text.indexOf('}', dollar + IF.length());
+            if (close < 0) {
+                return -1;
+            }
+            String name = text.substring(dollar + IF.length(), close).trim();
+            if (name.startsWith("!")) {
+                name = name.substring(1).trim();
+            }
+            if (name.isEmpty()) {
+                return -1;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (!isNameChar(name.charAt(i)) && name.charAt(i) != '.') {
+                    return -1;
+                }
+            }
+            return close + 1;
+        }
+    }
+
+    /**
+     * End of the variable reference starting at {@code dollar}, {@code -1} if there is none.
+     */
+    private static int referenceEnd(String text, int dollar) {
+        int i = dollar + 1;
+        if (i < text.length() && text.charAt(i) == '{') {
+            int close = text.indexOf('}', i + 1);
+            if (close < 0 || close == i + 1) {
+                return -1;
+            }
+            for (int j = i + 1; j < close; j++) {
+                if (!isNameChar(text.charAt(j)) && text.charAt(j) != '.') {
+                    return -1;
+                }
+            }
+            return close + 1;
+        }
+        while (i < text.length() && isNameChar(text.charAt(i))) {
+            i++;
+        }
+        return i > dollar + 1 ? i : -1;
+    }
+
+    private static boolean isNameChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+}
@@ -0,0 +1,232 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import hudson.EnvVars;
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.scm.ChangeLogSet.Entry;
+import hudson.triggers.SCMTrigger;
+import jenkins.plugins.telegram.ActiveNotifier.MessageBuilder;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import static jenkins.plugins.telegram.ActiveNotifier.MessageBuilder.escape;
+
+/**
+ * The placeholders of the message templates for one notification of one build:
+ * <ul>
+ * <li>{@code emoticon}, {@code status}, {@code job}, {@code build}, {@code duration} and {@code url}</li>
+ * <li>{@code tests}, the test summary, and {@code commits}, the change list</li>
+ * <li>{@code cause}, what started the build unless it was a change, and {@code changes}, who changed how much</li>
+ * <li>{@code customMessage}, the custom message of the job</li>
+ * </ul>
+ * Any other name is looked up in the build environment. Sections are computed when a template first
+ * refers to them and kept for the rest of the rendering; those left out of the notification are empty.
+ */
+public final class MessageValues implements MessageTemplate.Values {
+
+    private static final Logger logger = Logger.getLogger(MessageValues.class.getName());
+
+    private static final Set<String> SECTIONS = new HashSet<String>(Arrays.asList("emoticon", "status", "job",
+            "build", "duration", "url", "tests", "commits", "cause", "changes", "customMessage"));
+
+    private final MessageSections sections;
+    private final NotificationContext context;
+    private final BuildTransition transition;
+    private final Map<String, String> values = new HashMap<String, String>(16);
+
+    MessageValues(MessageSections sections, NotificationContext context, BuildTransition transition) {
+        this.sections = sections;
+        this.context = context;
+        this.transition = transition;
+    }
+
+    /**
+     * Renders a message written for a running build on the plugin's render threads, so the caller, such as
+     * the {@code telegramSend} step on the Pipeline's CPS thread, does not wait for the build environment,
+     * the build history or the test results.
+     */
+    public static ListenableFuture<String> renderLater(final String template, final Run<?, ?> run,
+                                                       final TaskListener listener) {
+        return TelegramDispatcher.render(new Callable<String>() {
+            @Override
+            public String call() {
+                return render(template, run, listener);
+            }
+        });
+    }
+
+    /**
+     * Renders a message written for a running build, such as the one of the {@code telegramSend} step.
+     * The template is compiled once per distinct text.
+     */
+    public static String render(String template, Run<?, ?> run, TaskListener listener) {
+        MessageTemplate compiled = MessageTemplate.cached(template);
+        if (compiled.isConstant() || run == null) {
+            return compiled.getSource();
+        }
+        return new MessageValues(MessageSections.ofStep(), new NotificationContext(run, listener),
+                BuildTransition.of(run)).render(compiled);
+    }
+
+    NotificationContext getContext() {
+        return context;
+    }
+
+    /**
+     * Whether the template refers to a section that reads the build's records, i.e. test results or
+     * change sets, so it is better rendered off the build thread.
+     */
+    boolean isExpensive(MessageTemplate template) {
+        Set<String> names = template.getNames();
+        return (sections.includeTestSummary() && names.contains("tests"))
+                || (sections.getCommitInfoChoice().showAnything() && names.contains("commits"))
+                || names.contains("changes");
+    }
+
+    /**
+     * Whether rendering the template looks up the build environment, which is best done while the build log is open.
+     */
+    boolean needsEnvironment(MessageTemplate template) {
+        for (String name : template.getNames()) {
+            if (name.equals("customMessage")) {
+                if (sections.includeCustomMessage() && !sections.getCustomMessage().isConstant()) {
+                    return true;
+                }
+            } else if (!SECTIONS.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    String render(MessageTemplate template) {
+        return template.appendTo(new StringBuilder(MessageBuilder.INITIAL_CAPACITY), this).toString();
+    }
+
+    @Override
+    public String get(String name, StringBuilder out) {
+        String value = values.get(name);
+        if (value == null && !values.containsKey(name)) {
+            value = compute(name, out);
+            values.put(name, value);
+        }
+        return value;
+    }
+
+    private String compute(String name, StringBuilder out) {
+        Run<?, ?> build = context.getBuild();
+        switch (name) {
+            case "emoticon":
+                return transition.getStatus().getEmoticon();
+            case "status":
+                return escape(transition.getStatus().getMessage());
+            case "job":
+                return escape(build.getParent().getFullDisplayName());
+            case "build":
+                return escape(build.getDisplayName());
+            case "duration":
+                return builder().getDurationString();
+            case "url":
+                return sections.getBuildServerUrl() + build.getUrl();
+            case "tests":
+                return sections.includeTestSummary()
+                        ? builder().appendTests(sections.includeFailedTests()).toString() : "";
+            case "commits":
+                if (!sections.getCommitInfoChoice().showAnything()) {
+                    return "";
+                }
+                int budget = Math.max(MessageBuilder.MIN_COMMIT_LIST_BUDGET,
+                        MessageBuilder.MAX_MESSAGE_LENGTH - out.length());
+                return builder().getCommitList(build, budget);
+            case "cause":
+                return getCause();
+            case "changes":
+                return getChanges();
+            case "customMessage":
+                return sections.includeCustomMessage() ? context.expand(sections.getCustomMessage()) : "";
+            default:
+                EnvVars environment = context.getEnvironment();
+                String value = environment.get(name);
+                return value != null ? escape(value) : null;
+        }
+    }
+
+    private MessageBuilder builder() {
+        return new MessageBuilder(sections.getCommitInfoChoice(), context, transition);
+    }
+
+    /**
+     * What started the build, empty if it was a change so {@code changes} can say more.
+     */
+    private String getCause() {
+        CauseAction causeAction = context.getBuild().getAction(CauseAction.class);
+        if (causeAction == null) {
+            return "";
+        }
+        Cause scmCause = causeAction.findCause(SCMTrigger.SCMTriggerCause.class);
+        return scmCause == null ? escape(causeAction.getShortDescription()) : "";
+    }
+
+    /**
+     * Who changed how many files, empty without changes.
+     */
+    private String getChanges() {
+        Run<?, ?> r = context.getBuild();
+        if (!ChangeSets.isComputed(r)) {
+            logger.info("No change set computed...");
+            return "";
+        }
+        Iterator<?> entries = ChangeSets.entries(r);
+        if (!entries.hasNext()) {
+            logger.fine("Empty change...");
+            return "";
+        }
+        // streamed, so memory does not grow with the size of the change set
+        Set<String> authors = new LinkedHashSet<String>();
+        boolean moreAuthors = false;
+        Set<String> files = new HashSet<String>();
+        boolean moreFiles = false;
+        while (entries.hasNext()) {
+            Entry entry = (Entry) entries.next();
+            String author = entry.getAuthor().getDisplayName();
+            if (authors.size() < ActiveNotifier.MAX_LISTED_AUTHORS) {
+                authors.add(author);
+            } else if (!authors.contains(author)) {
+                moreAuthors = true;
+            }
+            if (moreFiles) {
+                continue;
+            }
+            for (String path : entry.getAffectedPaths()) {
+                if (files.size() < ActiveNotifier.MAX_COUNTED_FILES) {
+                    files.add(path);
+                } else if (!files.contains(path)) {
+                    moreFiles = true;
+                    break;
+                }
+            }
+        }
+        StringBuilder changes = new StringBuilder("Started by changes from ");
+        escape(changes, StringUtils.join(authors, ", "));
+        if (moreAuthors) {
+            changes.append(" and others");
+        }
+        changes.append(" (");
+        if (moreFiles) {
+            changes.append("more than ");
+        }
+        return changes.append(files.size()).append(" file(s) changed)").toString();
+    }
+}
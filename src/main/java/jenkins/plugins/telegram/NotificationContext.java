@@ -0,0 +1,68 @@
+package jenkins.plugins.telegram;
+
+import hudson.EnvVars;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.LogTaskListener;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * State shared by everything that runs for one notification of one build.
+ * <p>
+ * {@link Run#getEnvironment(TaskListener)} consults every environment contributor and may
+ * talk to agents, so it is called at most once per notification, and only if a template needs it.
+ */
+public final class NotificationContext {
+
+    private static final Logger logger = Logger.getLogger(NotificationContext.class.getName());
+
+    private final Run<?, ?> build;
+    private final TaskListener listener;
+    private EnvVars environment;
+
+    public NotificationContext(Run<?, ?> build, TaskListener listener) {
+        this.build = build;
+        this.listener = listener;
+    }
+
+    public Run<?, ?> getBuild() {
+        return build;
+    }
+
+    public TaskListener getListener() {
+        return listener;
+    }
+
+    /**
+     * The build environment, computed on first use. Empty if it could not be determined.
+     */
+    public synchronized EnvVars getEnvironment() {
+        if (environment == null) {
+            try {
+                environment = build.getEnvironment(listener != null ? listener : new LogTaskListener(logger, Level.INFO));
+            } catch (IOException e) {
+                reportEnvironmentError(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reportEnvironmentError(e);
+            }
+        }
+        return environment;
+    }
+
+    private void reportEnvironmentError(Exception e) {
+        if (listener != null) {
+            listener.getLogger().println("Error retrieving environment vars: " + e.getMessage());
+        } else {
+            logger.log(Level.SEVERE, e.getMessage(), e);
+        }
+        environment = new EnvVars();
+    }
+
+    String expand(MessageTemplate template) {
+        return template.isConstant() ? template.getSource() : template.expand(getEnvironment());
+    }
+}
@@ -0,0 +1,186 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.ProxyConfiguration;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import okhttp3.Authenticator;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.Dispatcher;
+import okhttp3.FormBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.Route;
+import okio.Buffer;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Default transport: an asynchronous OkHttp client shared by the whole plugin.
+ * <p>
+ * Requests run on OkHttp's own threads, so neither builds nor the dispatcher's sender threads wait
+ * for Telegram. Every call has a connect, a read and an overall deadline. HTTP/2 is used where the
+ * JVM can negotiate it, otherwise connections are kept alive over HTTP/1.1. Only the first
+ * {@link #MAX_RESPONSE_BYTES} of a response are read; Telegram's answers are far smaller.
+ * <p>
+ * When the proxy configuration changes, new calls go to a new client while the calls already running
+ * or queued on the old one complete there; the old client is closed once it has none left.
+ */
+final class OkHttpTransport implements TelegramTransport {
+
+    private static final Logger logger = Logger.getLogger(OkHttpTransport.class.getName());
+
+    /** Deadline for the whole call, including redirects and retries on a fresh connection. */
+    static final long CALL_TIMEOUT_MILLIS = 60 * 1000L;
+    static final int MAX_RESPONSE_BYTES = 64 * 1024;
+    static final int MAX_REQUESTS_PER_HOST = 20;
+
+    private static OkHttpTransport instance;
+    private static String proxyKey;
+
+    private final OkHttpClient client;
+    private final ExecutorService executor;
+
+    private OkHttpTransport(ProxyConfiguration proxy) {
+        executor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "Telegram HTTP"));
+        Dispatcher dispatcher = new Dispatcher(executor);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(MAX_REQUESTS_PER_HOST, TelegramHttpClient.IDLE_CONNECTION_TIMEOUT,
+                        TimeUnit.MILLISECONDS))
+                .connectTimeout(TelegramHttpClient.CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .readTimeout(TelegramHttpClient.READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .writeTimeout(TelegramHttpClient.READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .callTimeout(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (proxy != null) {
+            builder.proxy(proxy.createProxy("api.telegram.org"));
+            final String username = proxy.getUserName();
+            final String password = proxy.getPassword();
+            if (username != null && !"".equals(username.trim())) {
+                logger.info("Using proxy authentication (user=" + username + ")");
+                builder.proxyAuthenticator(new Authenticator() {
+                    @Override
+                    public Request authenticate(Route route, Response response) {
+                        if (response.request().header("Proxy-Authorization") != null) {
+                            return null; // the credentials were rejected already
+                        }
+                        return response.request().newBuilder()
+                                .header("Proxy-Authorization", Credentials.basic(username, password))
+                                .build();
+                    }
+                });
+            }
+        }
+        client = builder.build();
+    }
+
+    /**
+     * Returns the shared transport, rebuilt when the Jenkins proxy configuration changes.
+     */
+    static synchronized OkHttpTransport get() {
+        ProxyConfiguration proxy = getProxy();
+        String key = TelegramHttpClient.keyOf(proxy);
+        if (instance == null || !key.equals(proxyKey)) {
+            if (instance != null) {
+                logger.info("Proxy configuration changed, rebuilding Telegram HTTP client");
+                instance.retire();
+            }
+            instance = new OkHttpTransport(proxy);
+            proxyKey = key;
+        }
+        return instance;
+    }
+
+    static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+            proxyKey = null;
+        }
+    }
+
+    @Override
+    public ListenableFuture<TelegramResponse> post(String url, Map<String, String> parameters) {
+        FormBody.Builder form = new FormBody.Builder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            form.add(parameter.getKey(), parameter.getValue());
+        }
+        final SettableFuture<TelegramResponse> result = SettableFuture.create();
+        client.newCall(new Request.Builder().url(url).post(form.build()).build()).enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    result.set(TelegramResponse.parse(response.code(), readBody(response.body())));
+                } catch (IOException e) {
+                    result.set(TelegramResponse.failed(e));
+                } finally {
+                    response.close();
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                result.set(TelegramResponse.failed(e));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads at most {@link #MAX_RESPONSE_BYTES} of the body straight from the socket.
+     */
+    private static String readBody(ResponseBody body) throws IOException {
+        if (body == null) {
+            return null;
+        }
+        BufferedSource source = body.source();
+        Buffer buffer = new Buffer();
+        while (buffer.size() < MAX_RESPONSE_BYTES) {
+            if (source.read(buffer, MAX_RESPONSE_BYTES - buffer.size()) == -1) {
+                break;
+            }
+        }
+        return buffer.readUtf8();
+    }
+
+    /**
+     * Closes this transport as soon as its dispatcher has no running or queued calls left.
+     */
+    private void retire() {
+        Dispatcher dispatcher = client.dispatcher();
+        dispatcher.setIdleCallback(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+        // the dispatcher may have gone idle before the callback was set
+        if (dispatcher.runningCallsCount() == 0 && dispatcher.queuedCallsCount() == 0) {
+            close();
+        }
+    }
+
+    private void close() {
+        executor.shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    private static ProxyConfiguration getProxy() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? jenkins.proxy : null;
+    }
+}
@@ -0,0 +1,430 @@
+package jenkins.plugins.telegram;
+
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only journal of notifications that have been queued but not yet delivered, kept under
+ * {@code JENKINS_HOME/telegram/outbox} so they survive a controller restart.
+ * <p>
+ * Every message is journaled before it is sent and acknowledged once Telegram accepted it or it
+ * was given up on. Writes are buffered and forced to disk in batches every
+ * {@link #SYNC_INTERVAL_MILLIS}, so a build completion never waits for a disk sync; a crash can
+ * lose at most the last batch. The journal is split into segments which are deleted once all their
+ * messages are acknowledged; long-lived messages are copied forward so old segments do not linger.
+ * Bot tokens are journaled encrypted with the controller's {@link Secret} key.
+ */
+final class Outbox {
+
+    private static final Logger logger = Logger.getLogger(Outbox.class.getName());
+
+    static final long SYNC_INTERVAL_MILLIS = 100;
+    /** A new segment is started once the current one reaches this size. */
+    static final long SEGMENT_SIZE = 1024 * 1024;
+
+    /** A message with its parse mode, reply markup and the message it edits. */
+    private static final byte ENQUEUED = 1;
+    private static final byte ACKNOWLEDGED = 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static Outbox instance;
+
+    private final File directory;
+    /** Segment holding the latest journal entry of each unacknowledged message. */
+    private final Map<Long, Long> liveEntries = new HashMap<Long, Long>();
+    /** Number of unacknowledged messages per segment. */
+    private final Map<Long, Integer> liveCounts = new HashMap<Long, Integer>();
+    /** Whether the messages acknowledged before the restart were delivered, by journal id. */
+    private final Map<Long, Boolean> recoveredOutcomes = new HashMap<Long, Boolean>();
+    private long nextId = 1;
+    private long segment;
+    private FileOutputStream segmentFile;
+    private DataOutputStream out;
+    private boolean dirty;
+    private ScheduledFuture<?> syncTask;
+
+    Outbox(File directory) {
+        this.directory = directory;
+    }
+
+    static synchronized Outbox get() {
+        if (instance == null) {
+            Jenkins jenkins = Jenkins.getInstance();
+            instance = new Outbox(jenkins != null ? new File(new File(jenkins.getRootDir(), "telegram"), "outbox") : null);
+        }
+        return instance;
+    }
+
+    boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Journals a message before it is handed to the sender.
+     *
+     * @param editMessageId the message the text replaces, {@code 0} for a new message
+     * @return the journal id to acknowledge later, {@code 0} if the outbox is disabled or unavailable
+     */
+    synchronized long append(String token, TelegramMessage message, long editMessageId) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        long id = nextId++;
+        return write(new Entry(id, token, message, editMessageId)) ? id : 0;
+    }
+
+    /**
+     * Journals several messages for the same bot under one lock.
+     *
+     * @param editMessageId the message the first text replaces, {@code 0} for new messages only
+     * @return the journal ids in the order of the messages, {@code 0} where journaling failed
+     */
+    synchronized long[] appendAll(String token, List<TelegramMessage> messages, long editMessageId) {
+        long[] ids = new long[messages.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = append(token, messages.get(i), i == 0 ? editMessageId : 0);
+        }
+        return ids;
+    }
+
+    /**
+     * Marks a message as done, it will not be sent again after a restart.
+     *
+     * @param delivered whether Telegram accepted the message, rather than it being given up on
+     */
+    synchronized void acknowledge(long id, boolean delivered) {
+        if (id <= 0 || !isEnabled()) {
+            return;
+        }
+        Long entrySegment = liveEntries.remove(id);
+        if (entrySegment == null) {
+            return;
+        }
+        decrementLive(entrySegment);
+        try {
+            open();
+            out.writeByte(ACKNOWLEDGED);
+            out.writeLong(id);
+            out.writeBoolean(delivered);
+            dirty = true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not acknowledge Telegram notification in the outbox", e);
+        }
+    }
+
+    /**
+     * Reads every segment left behind by the previous run and returns the messages that were never
+     * acknowledged, in the order they were queued. They are journaled again under their old ids.
+     * The outcome of the acknowledged ones is kept, see {@link #outcome(long)}.
+     */
+    synchronized List<Entry> recover() {
+        if (!isEnabled()) {
+            return new ArrayList<Entry>();
+        }
+        Map<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+        long[] segments = listSegments();
+        for (long existing : segments) {
+            readSegment(segmentFile(existing), pending, recoveredOutcomes);
+            segment = Math.max(segment, existing);
+        }
+        for (Long id : pending.keySet()) {
+            nextId = Math.max(nextId, id + 1);
+        }
+        segment++;
+        List<Entry> entries = new ArrayList<Entry>(pending.values());
+        for (Entry entry : entries) {
+            write(entry);
+        }
+        force();
+        // everything still pending now lives in the new segment
+        for (long existing : segments) {
+            deleteSegment(existing);
+        }
+        return entries;
+    }
+
+    /**
+     * Whether a message acknowledged before the restart was delivered.
+     *
+     * @return {@code null} if the journal holds no outcome for the message
+     */
+    synchronized Boolean outcome(long id) {
+        return recoveredOutcomes.get(id);
+    }
+
+    /**
+     * Forces buffered journal entries to disk. Runs periodically, so individual writes never sync.
+     */
+    synchronized void sync() {
+        if (out == null || !dirty) {
+            return;
+        }
+        force();
+        if (fileLength() >= SEGMENT_SIZE) {
+            roll();
+        }
+    }
+
+    synchronized void close() {
+        force();
+        if (syncTask != null) {
+            syncTask.cancel(false);
+            syncTask = null;
+        }
+        closeSegment();
+    }
+
+    private boolean write(Entry entry) {
+        TelegramMessage message = entry.message;
+        try {
+            open();
+            out.writeByte(ENQUEUED);
+            out.writeLong(entry.id);
+            writeString(Secret.fromString(entry.token).getEncryptedValue());
+            writeString(message.getDestination().toString());
+            writeString(message.getText());
+            writeString(message.getParseMode());
+            out.writeBoolean(message.isSilent());
+            writeString(message.getReplyMarkup());
+            out.writeLong(entry.editMessageId);
+            dirty = true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not journal Telegram notification in the outbox", e);
+            return false;
+        }
+        long id = entry.id;
+        Long previous = liveEntries.put(id, segment);
+        if (previous != null) {
+            decrementLive(previous);
+        }
+        Integer count = liveCounts.get(segment);
+        liveCounts.put(segment, count == null ? 1 : count + 1);
+        return true;
+    }
+
+    private void open() throws IOException {
+        if (out != null) {
+            return;
+        }
+        if (segment == 0) {
+            long[] segments = listSegments();
+            segment = segments.length > 0 ? segments[segments.length - 1] + 1 : 1;
+        }
+        directory.mkdirs();
+        segmentFile = new FileOutputStream(segmentFile(segment), true);
+        out = new DataOutputStream(new BufferedOutputStream(segmentFile));
+        if (syncTask == null) {
+            syncTask = Timer.get().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sync();
+                }
+            }, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Starts a new segment and reclaims the old ones: messages still pending in them are copied
+     * forward, then the old segments are deleted.
+     */
+    private void roll() {
+        closeSegment();
+        segment++;
+        long[] segments = listSegments();
+        for (long old : segments) {
+            Integer live = liveCounts.get(old);
+            if (old < segment && live != null && live > 0) {
+                compact(old);
+            }
+        }
+        // the copies must be on disk before the originals go away
+        force();
+        for (long old : segments) {
+            if (old < segment) {
+                liveCounts.remove(old);
+                deleteSegment(old);
+            }
+        }
+    }
+
+    private void compact(long oldSegment) {
+        Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>();
+        readSegment(segmentFile(oldSegment), entries, null);
+        for (Entry entry : entries.values()) {
+            Long current = liveEntries.get(entry.id);
+            if (current != null && current == oldSegment) {
+                write(entry);
+            }
+        }
+    }
+
+    private void force() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+            segmentFile.getChannel().force(false);
+            dirty = false;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not sync the Telegram outbox", e);
+        }
+    }
+
+    private void decrementLive(long entrySegment) {
+        Integer count = liveCounts.get(entrySegment);
+        if (count != null) {
+            liveCounts.put(entrySegment, count - 1);
+        }
+    }
+
+    /**
+     * Adds the segment's queued messages to {@code entries} and removes acknowledged ones, recording
+     * their outcome in {@code outcomes} if given. A torn entry at the end of the segment, left by a
+     * crash, ends the read.
+     */
+    private static void readSegment(File file, Map<Long, Entry> entries, Map<Long, Boolean> outcomes) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (true) {
+                byte type = in.readByte();
+                long id = in.readLong();
+                if (type == ENQUEUED) {
+                    String token = Secret.toString(Secret.decrypt(readString(in)));
+                    TelegramMessage message = TelegramMessage.to(readString(in))
+                            .text(readString(in))
+                            .parseMode(emptyToNull(readString(in)))
+                            .silent(in.readBoolean())
+                            .replyMarkup(emptyToNull(readString(in)))
+                            .build();
+                    entries.put(id, new Entry(id, token, message, in.readLong()));
+                } else if (type == ACKNOWLEDGED) {
+                    boolean delivered = in.readBoolean();
+                    entries.remove(id);
+                    if (outcomes != null) {
+                        outcomes.put(id, delivered);
+                    }
+                } else {
+                    logger.warning("Corrupt Telegram outbox segment " + file + ", ignoring the rest of it");
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            // end of segment
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not read Telegram outbox segment " + file, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private long[] listSegments() {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (names == null) {
+            return new long[0];
+        }
+        long[] segments = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            segments[i] = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(),
+                    names[i].length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(long number) {
+        return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private void deleteSegment(long number) {
+        File file = segmentFile(number);
+        if (file.exists() && !file.delete()) {
+            logger.warning("Could not delete Telegram outbox segment " + file);
+        }
+    }
+
+    private long fileLength() {
+        try {
+            return segmentFile.getChannel().size();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void closeSegment() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not close Telegram outbox segment", e);
+            }
+            out = null;
+            segmentFile = null;
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes = (s != null ? s : "").getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static String emptyToNull(String s) {
+        return s.length() > 0 ? s : null;
+    }
+
+    static final class Entry {
+        final long id;
+        final String token;
+        final TelegramMessage message;
+        /** Message the text replaces, {@code 0} for a new message. */
+        final long editMessageId;
+
+        Entry(long id, String token, TelegramMessage message, long editMessageId) {
+            this.id = id;
+            this.token = token;
+            this.message = message;
+            this.editMessageId = editMessageId;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package jenkins.plugins.telegram;
+
+/**
+ * What happens to a message that does not fit into the full {@link TelegramDispatcher} queue.
+ */
+public enum OverflowPolicy {
+    DROP_OLDEST("drop the oldest queued message"),
+    /**
+     * Builds wait for room. Other threads, such as the dispatcher's own scheduler, timers or the Pipeline
+     * thread, never wait: their messages are spilled to disk, or the oldest is dropped without a spill file.
+     */
+    BLOCK("block the build until there is room"),
+    SPILL("spill to disk and send later");
+
+    private final String displayName;
+
+    private OverflowPolicy(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return this.displayName;
+    }
+
+    public static OverflowPolicy forDisplayName(String displayName) {
+        for (OverflowPolicy overflowPolicy : values()) {
+            if (overflowPolicy.getDisplayName().equals(displayName)) {
+                return overflowPolicy;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,165 @@
+package jenkins.plugins.telegram;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets enforcing Telegram's send limits: one bucket per chat plus one shared by all chats.
+ * <p>
+ * Telegram allows a bot roughly one message per second per chat and about thirty per second overall,
+ * and answers anything above that with {@code 429 Too Many Requests}. Chat slots are reserved in
+ * arrival order, so queued messages for the same chat keep their order while being paced.
+ */
+final class RateLimiter {
+
+    /** Can be raised with {@code -Djenkins.plugins.telegram.RateLimiter.perChatMessagesPerSecond=...}. */
+    static final double PER_CHAT_MESSAGES_PER_SECOND = rate("perChatMessagesPerSecond", 1.0);
+    /** Can be raised with {@code -Djenkins.plugins.telegram.RateLimiter.globalMessagesPerSecond=...}. */
+    static final double GLOBAL_MESSAGES_PER_SECOND = rate("globalMessagesPerSecond", 30.0);
+    /** Chat buckets are only pruned once there are more than this many. */
+    private static final int PRUNE_THRESHOLD = 1000;
+    private static final long IDLE_BUCKET_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final double perChatRate;
+    private final TokenBucket global;
+    private final ConcurrentMap<String, TokenBucket> chats = new ConcurrentHashMap<String, TokenBucket>();
+
+    RateLimiter() {
+        this(PER_CHAT_MESSAGES_PER_SECOND, GLOBAL_MESSAGES_PER_SECOND);
+    }
+
+    RateLimiter(double perChatRate, double globalRate) {
+        this.perChatRate = perChatRate;
+        this.global = new TokenBucket(globalRate, globalRate, System.nanoTime());
+    }
+
+    /**
+     * Reserves the next send slot of a chat.
+     *
+     * @return milliseconds to wait before the slot is due
+     */
+    long reserve(String chatId) {
+        long now = System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(bucket(chatId, now).reserve(now));
+    }
+
+    /**
+     * Takes a permit from the global bucket if one is available right now.
+     *
+     * @return {@code 0} if a permit was taken, otherwise milliseconds until one becomes available
+     */
+    long tryAcquireGlobal() {
+        long wait = global.tryAcquire(System.nanoTime());
+        return wait > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)) : 0;
+    }
+
+    /**
+     * Milliseconds left on a pause imposed by Telegram for this chat, {@code 0} if none.
+     */
+    long pausedFor(String chatId) {
+        TokenBucket bucket = chats.get(chatId);
+        if (bucket == null) {
+            return 0;
+        }
+        long remaining = bucket.pausedUntil() - System.nanoTime();
+        return remaining > 0 ? TimeUnit.NANOSECONDS.toMillis(remaining) : 0;
+    }
+
+    /**
+     * Stops sending to a chat for the {@code retry_after} period Telegram asked for.
+     */
+    void pause(String chatId, long millis) {
+        long now = System.nanoTime();
+        bucket(chatId, now).pause(now + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static double rate(String name, double defaultRate) {
+        String value = System.getProperty(RateLimiter.class.getName() + "." + name);
+        if (value != null) {
+            try {
+                double rate = Double.parseDouble(value);
+                if (rate > 0) {
+                    return rate;
+                }
+            } catch (NumberFormatException e) {
+                // fall back to the default
+            }
+        }
+        return defaultRate;
+    }
+
+    private TokenBucket bucket(String chatId, long now) {
+        TokenBucket bucket = chats.get(chatId);
+        if (bucket == null) {
+            if (chats.size() > PRUNE_THRESHOLD) {
+                prune(now);
+            }
+            TokenBucket created = new TokenBucket(perChatRate, 1, now);
+            bucket = chats.putIfAbsent(chatId, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    private void prune(long now) {
+        for (Iterator<Map.Entry<String, TokenBucket>> it = chats.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getValue().isIdleSince(now - IDLE_BUCKET_NANOS)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Token bucket kept as a theoretical arrival time (GCRA): each permit advances it by one interval,
+     * and up to {@code capacity} permits may be granted ahead of it. A permit that is not due yet is
+     * handed out anyway and the caller is told how long to wait for it.
+     */
+    static final class TokenBucket {
+        private final long intervalNanos;
+        private final long burstToleranceNanos;
+        private long theoreticalArrivalNanos;
+        private long pausedUntilNanos;
+
+        TokenBucket(double permitsPerSecond, double capacity, long now) {
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+            this.burstToleranceNanos = (long) ((capacity - 1) * intervalNanos);
+            this.theoreticalArrivalNanos = now;
+            this.pausedUntilNanos = now;
+        }
+
+        synchronized long reserve(long now) {
+            long arrival = Math.max(theoreticalArrivalNanos, now);
+            long grant = Math.max(now, arrival - burstToleranceNanos);
+            theoreticalArrivalNanos = arrival + intervalNanos;
+            return grant - now;
+        }
+
+        synchronized long tryAcquire(long now) {
+            long arrival = Math.max(theoreticalArrivalNanos, now);
+            long grant = arrival - burstToleranceNanos;
+            if (grant > now) {
+                return grant - now;
+            }
+            theoreticalArrivalNanos = arrival + intervalNanos;
+            return 0;
+        }
+
+        synchronized void pause(long until) {
+            theoreticalArrivalNanos = Math.max(theoreticalArrivalNanos, until + burstToleranceNanos);
+            pausedUntilNanos = Math.max(pausedUntilNanos, until);
+        }
+
+        synchronized long pausedUntil() {
+            return pausedUntilNanos;
+        }
+
+        synchronized boolean isIdleSince(long time) {
+            return theoreticalArrivalNanos - time < 0;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package jenkins.plugins.telegram;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a failed Telegram call is worth repeating and how long to wait before doing so.
+ * <p>
+ * I/O errors, server errors and {@code 429 Too Many Requests} are retried with capped exponential
+ * backoff and jitter. Anything else, e.g. {@code 400 Bad Request} or {@code 403 chat not found},
+ * will not get better by trying again.
+ */
+final class RetryPolicy {
+
+    static final int DEFAULT_MAX_ATTEMPTS = 5;
+    static final long DEFAULT_BASE_DELAY = TimeUnit.SECONDS.toMillis(1);
+    static final long DEFAULT_MAX_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final Random random = new Random();
+
+    RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    static boolean isRetryable(TelegramResponse response) {
+        int status = response.getStatusCode();
+        return response.getException() != null || status == 429 || status >= 500;
+    }
+
+    /**
+     * Whether another attempt should be made after {@code attempts} calls ended with {@code response}.
+     */
+    boolean shouldRetry(TelegramResponse response, int attempts) {
+        return !response.isOk() && isRetryable(response) && attempts < maxAttempts;
+    }
+
+    /**
+     * Milliseconds to wait before the next attempt. Telegram's {@code retry_after} is honoured as is,
+     * otherwise the delay doubles per attempt up to the cap, with the upper half randomised so that
+     * messages failing together do not come back together.
+     */
+    long delayBeforeRetry(TelegramResponse response, int attempts) {
+        if (response.getRetryAfter() > 0) {
+            return TimeUnit.SECONDS.toMillis(response.getRetryAfter());
+        }
+        long backoff = baseDelay << Math.min(attempts - 1, 30);
+        if (backoff <= 0 || backoff > maxDelay) {
+            backoff = maxDelay;
+        }
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+}
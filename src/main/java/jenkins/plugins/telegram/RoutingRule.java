@@ -0,0 +1,127 @@
+package jenkins.plugins.telegram;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * A global routing rule: the builds it matches are announced to its chats in addition to anything the
+ * job configures itself. Rules are compiled into a {@link RoutingTable} when the configuration is saved.
+ */
+public class RoutingRule {
+
+    private static final Logger logger = Logger.getLogger(RoutingRule.class.getName());
+
+    private final String jobs;
+    private final String folder;
+    private final String transitions;
+    private final String label;
+    private final String chatId;
+    private final String token;
+    private final boolean includeTestSummary;
+    private final boolean includeCommits;
+    private final String customMessage;
+
+    @DataBoundConstructor
+    public RoutingRule(String jobs, String folder, String transitions, String label, String chatId, String token,
+                       boolean includeTestSummary, boolean includeCommits, String customMessage) {
+        this.jobs = StringUtils.trimToEmpty(jobs);
+        this.folder = StringUtils.strip(StringUtils.trimToEmpty(folder), "/");
+        this.transitions = StringUtils.trimToEmpty(transitions);
+        this.label = StringUtils.trimToEmpty(label);
+        this.chatId = chatId;
+        this.token = token;
+        this.includeTestSummary = includeTestSummary;
+        this.includeCommits = includeCommits;
+        this.customMessage = customMessage;
+    }
+
+    /**
+     * Glob on the full job name, {@code *} staying within a folder and {@code **} crossing folders,
+     * or a regular expression written as {@code /regex/}. Empty matches every job.
+     */
+    public String getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Full name of a folder whose jobs, at any depth, are matched. Empty matches every job.
+     */
+    public String getFolder() {
+        return folder;
+    }
+
+    /**
+     * Comma separated {@link MessageStatus} names, such as {@code STARTING, FAILURE, BACK_TO_NORMAL}.
+     * Empty announces every result but not the start.
+     */
+    public String getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * Label expression the node a build ran on has to match. Empty matches every build. Only an
+     * {@link hudson.model.AbstractBuild} has such a node, so rules with a label never match Pipeline runs.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    public String getChatId() {
+        return chatId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public boolean getIncludeTestSummary() {
+        return includeTestSummary;
+    }
+
+    public boolean getIncludeCommits() {
+        return includeCommits;
+    }
+
+    public String getCustomMessage() {
+        return customMessage;
+    }
+
+    boolean isRegex() {
+        return jobs.length() > 1 && jobs.startsWith("/") && jobs.endsWith("/");
+    }
+
+    /**
+     * The notifier sending the matched builds, filtering them by the transitions of this rule.
+     */
+    TelegramNotifier toNotifier() {
+        Set<MessageStatus> statuses = parseTransitions();
+        boolean any = statuses.isEmpty();
+        return new TelegramNotifier(token, chatId, "", "", statuses.contains(MessageStatus.STARTING),
+                any || statuses.contains(MessageStatus.ABORTED),
+                any || statuses.contains(MessageStatus.FAILURE),
+                any || statuses.contains(MessageStatus.NOT_BUILT),
+                any || statuses.contains(MessageStatus.SUCCESS),
+                any || statuses.contains(MessageStatus.UNSTABLE),
+                any || statuses.contains(MessageStatus.BACK_TO_NORMAL),
+                any || statuses.contains(MessageStatus.STILL_FAILING),
+                includeTestSummary, includeTestSummary,
+                includeCommits ? CommitInfoChoice.AUTHORS_AND_TITLES : CommitInfoChoice.NONE,
+                StringUtils.isNotEmpty(customMessage), customMessage);
+    }
+
+    private Set<MessageStatus> parseTransitions() {
+        Set<MessageStatus> statuses = EnumSet.noneOf(MessageStatus.class);
+        for (String name : StringUtils.split(transitions, ", ")) {
+            try {
+                statuses.add(MessageStatus.valueOf(name.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                logger.warning("Ignoring unknown transition " + name + " in a Telegram routing rule");
+            }
+        }
+        return statuses;
+    }
+}
@@ -0,0 +1,254 @@
+package jenkins.plugins.telegram;
+
+import antlr.ANTLRException;
+import hudson.model.AbstractBuild;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Run;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The global {@link RoutingRule}s compiled for fast lookup.
+ * <p>
+ * Every rule is filed in a prefix trie under the literal start of its job matcher: the folder, or the
+ * glob up to its first wildcard. Looking up a job walks its full name once and only checks the
+ * precompiled patterns of rules filed along that path; regular expressions are filed at the root.
+ * The result is cached per job name, so a build completion only checks the label and the transition.
+ */
+final class RoutingTable {
+
+    private static final Logger logger = Logger.getLogger(RoutingTable.class.getName());
+
+    static final RoutingTable EMPTY = new RoutingTable(Collections.<RoutingRule>emptyList());
+
+    /** The per-job cache is dropped when it grows beyond this, e.g. after many jobs were renamed. */
+    static final int MAX_CACHED_JOBS = 10000;
+
+    private static final Comparator<Route> RULE_ORDER = new Comparator<Route>() {
+        @Override
+        public int compare(Route a, Route b) {
+            return a.index < b.index ? -1 : a.index == b.index ? 0 : 1;
+        }
+    };
+
+    private final TrieNode root = new TrieNode();
+    private final ConcurrentMap<String, List<Route>> routesByJob = new ConcurrentHashMap<String, List<Route>>();
+
+    RoutingTable(List<RoutingRule> rules) {
+        for (int i = 0; i < rules.size(); i++) {
+            Route route = Route.compile(i, rules.get(i));
+            if (route != null) {
+                root.add(route.prefix, 0, route);
+            }
+        }
+    }
+
+    /**
+     * Notifiers of the rules matching the run, in rule order.
+     *
+     * @param starting whether the run is starting, only rules announcing the start apply then
+     */
+    List<TelegramNotifier> route(Run<?, ?> run, boolean starting) {
+        List<Route> routes = routesFor(run.getParent().getFullName());
+        if (routes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<TelegramNotifier> notifiers = new ArrayList<TelegramNotifier>(routes.size());
+        for (Route route : routes) {
+            if ((!starting || route.notifier.getStartNotification()) && route.matchesNode(run)) {
+                notifiers.add(route.notifier);
+            }
+        }
+        return notifiers;
+    }
+
+    /**
+     * Routes whose job criteria match the full job name, in rule order.
+     */
+    List<Route> routesFor(String fullName) {
+        List<Route> routes = routesByJob.get(fullName);
+        if (routes == null) {
+            routes = match(fullName);
+            if (routesByJob.size() >= MAX_CACHED_JOBS) {
+                routesByJob.clear();
+            }
+            routesByJob.put(fullName, routes);
+        }
+        return routes;
+    }
+
+    private List<Route> match(String fullName) {
+        List<Route> matched = null;
+        TrieNode node = root;
+        for (int i = 0; node != null; i++) {
+            for (Route route : node.routes) {
+                if (route.matchesJob(fullName)) {
+                    if (matched == null) {
+                        matched = new ArrayList<Route>(2);
+                    }
+                    matched.add(route);
+                }
+            }
+            node = i < fullName.length() ? node.children.get(fullName.charAt(i)) : null;
+        }
+        if (matched == null) {
+            return Collections.emptyList();
+        }
+        Collections.sort(matched, RULE_ORDER);
+        return Collections.unmodifiableList(matched);
+    }
+
+    /**
+     * Turns a job name glob into a regular expression: {@code *} and {@code ?} stay within a folder,
+     * {@code **} crosses folders.
+     */
+    static Pattern glob(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 16);
+        int literal = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c != '*' && c != '?') {
+                continue;
+            }
+            if (i > literal) {
+                regex.append(Pattern.quote(glob.substring(literal, i)));
+            }
+            if (c == '?') {
+                regex.append("[^/]");
+            } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append("[^/]*");
+            }
+            literal = i + 1;
+        }
+        if (literal < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(literal)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * The part of a glob before its first wildcard.
+     */
+    static String literalPrefix(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                return glob.substring(0, i);
+            }
+        }
+        return glob;
+    }
+
+    private static final class TrieNode {
+        final Map<Character, TrieNode> children = new HashMap<Character, TrieNode>(4);
+        final List<Route> routes = new ArrayList<Route>(1);
+
+        void add(String prefix, int depth, Route route) {
+            if (depth == prefix.length()) {
+                routes.add(route);
+                return;
+            }
+            TrieNode child = children.get(prefix.charAt(depth));
+            if (child == null) {
+                child = new TrieNode();
+                children.put(prefix.charAt(depth), child);
+            }
+            child.add(prefix, depth + 1, route);
+        }
+    }
+
+    /**
+     * A compiled rule.
+     */
+    static final class Route {
+        final int index;
+        final RoutingRule rule;
+        /** Literal start every matching job name has, the key of the rule in the trie. */
+        final String prefix;
+        private final String folderPrefix;
+        /** {@code null} if the prefix alone decides. */
+        private final Pattern jobs;
+        private final Label label;
+        final TelegramNotifier notifier;
+
+        private Route(int index, RoutingRule rule, String prefix, String folderPrefix, Pattern jobs, Label label) {
+            this.index = index;
+            this.rule = rule;
+            this.prefix = prefix;
+            this.folderPrefix = folderPrefix;
+            this.jobs = jobs;
+            this.label = label;
+            this.notifier = rule.toNotifier();
+        }
+
+        /**
+         * @return {@code null} if the rule is invalid and can never match
+         */
+        static Route compile(int index, RoutingRule rule) {
+            String folderPrefix = rule.getFolder().isEmpty() ? "" : rule.getFolder() + "/";
+            String jobs = rule.getJobs();
+            Pattern pattern = null;
+            String jobsPrefix = "";
+            try {
+                if (rule.isRegex()) {
+                    pattern = Pattern.compile(jobs.substring(1, jobs.length() - 1));
+                } else if (!jobs.isEmpty()) {
+                    jobsPrefix = literalPrefix(jobs);
+                    // a glob without wildcards is matched by comparing names
+                    pattern = jobsPrefix.length() < jobs.length() ? glob(jobs) : null;
+                }
+            } catch (PatternSyntaxException e) {
+                logger.warning("Ignoring Telegram routing rule " + (index + 1) + ", invalid job pattern: " + e.getMessage());
+                return null;
+            }
+            Label label = null;
+            if (!rule.getLabel().isEmpty()) {
+                try {
+                    label = Label.parseExpression(rule.getLabel());
+                } catch (ANTLRException e) {
+                    logger.warning("Ignoring Telegram routing rule " + (index + 1) + ", invalid label: " + e.getMessage());
+                    return null;
+                }
+            }
+            String prefix = jobsPrefix.startsWith(folderPrefix) ? jobsPrefix : folderPrefix;
+            if (pattern == null && !jobs.isEmpty() && !rule.isRegex() && !jobs.startsWith(folderPrefix)) {
+                // an exact job name outside of the folder
+                return null;
+            }
+            return new Route(index, rule, prefix, folderPrefix, pattern, label);
+        }
+
+        boolean matchesJob(String fullName) {
+            if (!fullName.startsWith(folderPrefix)) {
+                return false;
+            }
+            if (jobs != null) {
+                return jobs.matcher(fullName).matches();
+            }
+            // without a pattern the job name is the prefix itself, or only the folder was given
+            return rule.getJobs().isEmpty() || fullName.equals(prefix);
+        }
+
+        boolean matchesNode(Run<?, ?> run) {
+            if (label == null) {
+                return true;
+            }
+            Node node = run instanceof AbstractBuild ? ((AbstractBuild<?, ?>) run).getBuiltOn() : null;
+            return node != null && label.matches(node.getAssignedLabels());
+        }
+    }
+}
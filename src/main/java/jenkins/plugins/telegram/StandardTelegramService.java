@@ -1,16 +1,22 @@
 package jenkins.plugins.telegram;
 
 
-import hudson.ProxyConfiguration;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.NameValuePair;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
-import org.apache.commons.httpclient.methods.PostMethod;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,75 +24,288 @@ import java.util.logging.Logger;
 /**
  * Created by Sebastian on 27.04.2016.
  */
-public class StandardTelegramService implements TelegramService {
+public class StandardTelegramService implements TelegramService, TelegramSender {
     private static final String  TELEGRAM_API_URL=  "https://api.telegram.org/bot%s/sendMessage";
+    private static final String SEND_METHOD = "sendMessage";
+    private static final String EDIT_METHOD = "editMessageText";
     private static final Logger logger = Logger.getLogger(StandardTelegramService.class.getName());
+    /** Can be set with {@code -Djenkins.plugins.telegram.StandardTelegramService.legacyTransport=true}. */
+    static final boolean LEGACY_TRANSPORT = Boolean.getBoolean(StandardTelegramService.class.getName() + ".legacyTransport");
+    /** How long {@link #publish(String)} waits for Telegram's answer. */
+    static final long PUBLISH_TIMEOUT_MILLIS = 15 * 1000L;
     private String token;
     private String chatId;
+    private String apiUrl;
 
     public StandardTelegramService(String token, String chatId) {
+        this(token, chatId, TELEGRAM_API_URL);
+    }
+
+    StandardTelegramService(String token, String chatId, String apiUrl) {
         super();
 
         this.token = token;
         this.chatId = chatId;
+        this.apiUrl = apiUrl;
+    }
+    /**
+     * Same as {@link #publish(String)}, Telegram messages have no color.
+     */
+    @Override
+    public boolean publish(String message, String color) {
+        return publish(message);
     }
+    /**
+     * Sends the message right away with a single attempt and waits for the answer, at most
+     * {@link #PUBLISH_TIMEOUT_MILLIS}. Meant for callers that have to know at once, such as the
+     * connection test; notifications are {@linkplain #enqueue(String) queued} and retried instead.
+     */
     @Override
     public boolean publish(String message) {
-        return publish(message,"");
+        return send(message).isOk();
     }
+
     @Override
-    public boolean publish(String message, String color) {
-        Boolean result = true;
-        HttpClient client = getHttpClient();
-        PostMethod post = new PostMethod(String.format(TELEGRAM_API_URL,token));
-        post.getParams().setContentCharset("UTF-8");
-        //logger.log(Level.INFO,"Telegram post url: " + String.format(TELEGRAM_API_URL,token));
-        post.setRequestBody(new NameValuePair[]{
-                new NameValuePair("chat_id",chatId),
-                new NameValuePair("parse_mode","HTML"),
-                new NameValuePair("disable_web_page_preview","true"),
-                new NameValuePair("text",message)
-        });
+    public ListenableFuture<Boolean> enqueue(String message) {
+        return TelegramResponse.delivered(post(message));
+    }
 
-        try {
-            int responseCode = client.executeMethod(post);
-            String response = post.getResponseBodyAsString();
-            if(responseCode != HttpStatus.SC_OK) {
-                logger.log(Level.WARNING, "Telegram post may have failed. Response: " + response);
-                result = false;
+    @Override
+    public ListenableFuture<TelegramResponse> post(String message) {
+        return submit(message(message), 0);
+    }
+
+    @Override
+    public ListenableFuture<TelegramResponse> edit(long messageId, String message) {
+        return submit(message(message), messageId);
+    }
+
+    @Override
+    public TelegramDelivery queue(String message) {
+        return queue(message(message), 0);
+    }
+
+    /**
+     * Queues a message to its own chat, sent with this service's token.
+     */
+    @Override
+    public ListenableFuture<TelegramResponse> publish(TelegramMessage message) {
+        return submit(message, 0);
+    }
+
+    /**
+     * Messages that fit into one Telegram message are handed to the dispatcher as a single batch. Longer
+     * ones are split; their parts follow each other, but other messages may be sent in between.
+     */
+    @Override
+    public List<ListenableFuture<TelegramResponse>> publishAll(Collection<TelegramMessage> messages) {
+        LongMessagePolicy policy = getLongMessagePolicy();
+        List<ListenableFuture<TelegramResponse>> results = new ArrayList<ListenableFuture<TelegramResponse>>(messages.size());
+        List<TelegramMessage> batch = new ArrayList<TelegramMessage>(messages.size());
+        List<Integer> batchPositions = new ArrayList<Integer>(messages.size());
+        for (TelegramMessage message : messages) {
+            List<String> parts = MessageSplitter.partsOf(message.getText(), policy);
+            if (parts.size() == 1) {
+                batchPositions.add(results.size());
+                batch.add(parts.get(0) == message.getText() ? message : message.withText(parts.get(0)));
+                results.add(null);
+            } else {
+                results.add(queue(message, 0).getResponse());
             }
-            else {
-                logger.info("Posting succeeded");
+        }
+        if (!batch.isEmpty()) {
+            List<ListenableFuture<TelegramResponse>> sent = TelegramDispatcher.get().submitAll(this, batch);
+            for (int i = 0; i < sent.size(); i++) {
+                results.set(batchPositions.get(i), sent.get(i));
             }
-        } catch (IOException e) {
-            logger.severe("Error while sending notification: " + message);
-            e.printStackTrace();
-            result = false;
         }
-        return result;
+        return results;
     }
-    protected HttpClient getHttpClient() {
-        HttpClient client = new HttpClient();
-        Jenkins instance = Jenkins.getInstance();
-        if (instance != null) {
-            ProxyConfiguration proxy = instance.proxy;
-            if (proxy != null) {
-                client.getHostConfiguration().setProxy(proxy.name, proxy.port);
-                String username = proxy.getUserName();
-                String password = proxy.getPassword();
-                // Consider it to be passed if username specified. Sufficient?
-                if (username != null && !"".equals(username.trim())) {
-                    logger.info("Using proxy authentication (user=" + username + ")");
-                    // http://hc.apache.org/httpclient-3.x/authentication.html#Proxy_Authentication
-                    // and
-                    // http://svn.apache.org/viewvc/httpcomponents/oac.hc3x/trunk/src/examples/BasicAuthenticationExample.java?view=markup
-                    client.getState().setProxyCredentials(AuthScope.ANY,
-                            new UsernamePasswordCredentials(username, password));
-                }
+
+    /**
+     * Builds a message with this service's destination.
+     */
+    TelegramMessage message(String text) {
+        return TelegramMessage.to(chatId).text(text).build();
+    }
+
+    private ListenableFuture<TelegramResponse> submit(TelegramMessage message, long editMessageId) {
+        return queue(message, editMessageId).getResponse();
+    }
+
+    /**
+     * Queues the message, split into several parts or truncated if it is longer than Telegram accepts.
+     * All parts are journaled right away, but each is queued only once the one before it was sent, so
+     * they arrive in order; only the first one replaces the edited message. The response is the answer
+     * to the first part, or to the first part that failed.
+     */
+    private TelegramDelivery queue(TelegramMessage message, long editMessageId) {
+        List<String> texts = MessageSplitter.partsOf(message.getText(), getLongMessagePolicy());
+        List<TelegramMessage> parts = new ArrayList<TelegramMessage>(texts.size());
+        for (String text : texts) {
+            parts.add(text == message.getText() ? message : message.withText(text));
+        }
+        TelegramDispatcher dispatcher = TelegramDispatcher.get();
+        long[] outboxIds = dispatcher.journal(this, parts, editMessageId);
+        ListenableFuture<TelegramResponse> response;
+        if (parts.size() == 1) {
+            response = dispatcher.submitJournaled(this, parts.get(0), editMessageId, outboxIds[0]);
+        } else {
+            SettableFuture<TelegramResponse> result = SettableFuture.create();
+            submitParts(parts, outboxIds, 0, editMessageId, null, result);
+            response = result;
+        }
+        for (long id : outboxIds) {
+            if (id == 0) {
+                // not journaled as a whole, it cannot be followed across a restart
+                return new TelegramDelivery(new long[0], response);
             }
         }
-        return client;
+        return new TelegramDelivery(outboxIds, response);
     }
 
+    private void submitParts(final List<TelegramMessage> parts, final long[] outboxIds, final int index,
+                             long editMessageId, final TelegramResponse outcome,
+                             final SettableFuture<TelegramResponse> result) {
+        if (index == parts.size()) {
+            result.set(outcome);
+            return;
+        }
+        // the next part is queued from a timer thread, never from the sender thread that completed
+        // the previous one, which could otherwise block on its own full queue
+        ListenableFuture<TelegramResponse> sent = TelegramDispatcher.get().submitJournaled(this, parts.get(index),
+                editMessageId, outboxIds[index]);
+        Futures.addCallback(sent, new FutureCallback<TelegramResponse>() {
+            @Override
+            public void onSuccess(TelegramResponse response) {
+                boolean keep = outcome != null && (!outcome.isOk() || response.isOk());
+                submitParts(parts, outboxIds, index + 1, 0, keep ? outcome : response, result);
+            }
 
+            @Override
+            public void onFailure(Throwable t) {
+                logger.log(Level.WARNING, "Could not send part " + (index + 1) + " of a Telegram notification", t);
+                boolean keep = outcome != null && !outcome.isOk();
+                submitParts(parts, outboxIds, index + 1, 0,
+                        keep ? outcome : TelegramResponse.notSent(t.toString()), result);
+            }
+        }, Timer.get());
+    }
+
+    private static LongMessagePolicy getLongMessagePolicy() {
+        Jenkins jenkins = Jenkins.getInstance();
+        TelegramNotifier.DescriptorImpl descriptor = jenkins != null
+                ? jenkins.getDescriptorByType(TelegramNotifier.DescriptorImpl.class) : null;
+        return descriptor != null ? descriptor.getLongMessagePolicy() : LongMessagePolicy.SPLIT;
+    }
+
+    @Override
+    public ListenableFuture<Boolean> enqueue(BuildSummary build) {
+        return MessageCoalescer.get().submit(this, build);
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * The destination as configured, {@code chat} or {@code chat:topic}.
+     */
+    String getChatId() {
+        return chatId;
+    }
+
+    /**
+     * Posts the message once, bypassing the queue, and waits at most {@link #PUBLISH_TIMEOUT_MILLIS} for the answer.
+     */
+    TelegramResponse send(String message) {
+        ListenableFuture<TelegramResponse> response = sendAsync(message(message), 0);
+        try {
+            return response.get(PUBLISH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TelegramResponse.notSent("interrupted");
+        } catch (ExecutionException e) {
+            return TelegramResponse.notSent(String.valueOf(e.getCause()));
+        } catch (TimeoutException e) {
+            response.cancel(true);
+            return TelegramResponse.notSent("no answer within " + PUBLISH_TIMEOUT_MILLIS + " ms");
+        }
+    }
+
+    /**
+     * Posts the message, or replaces the text of message {@code editMessageId} if it is not {@code 0}.
+     * Invoked by the {@link TelegramDispatcher} once the rate limits allow it.
+     */
+    ListenableFuture<TelegramResponse> sendAsync(TelegramMessage message, long editMessageId) {
+        String url = String.format(apiUrl, token);
+        if (editMessageId > 0) {
+            url = url.substring(0, url.length() - SEND_METHOD.length()) + EDIT_METHOD;
+        }
+        final ChatDestination destination = message.getDestination();
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        parameters.put("chat_id", destination.getChatId());
+        parameters.put("disable_web_page_preview", "true");
+        parameters.put("text", message.getText());
+        if (message.getParseMode() != null) {
+            parameters.put("parse_mode", message.getParseMode());
+        }
+        if (message.getReplyMarkup() != null) {
+            parameters.put("reply_markup", message.getReplyMarkup());
+        }
+        if (editMessageId > 0) {
+            parameters.put("message_id", String.valueOf(editMessageId));
+        } else {
+            if (destination.getTopic() != null) {
+                parameters.put("message_thread_id", destination.getTopic());
+            }
+            if (message.isSilent()) {
+                parameters.put("disable_notification", "true");
+            }
+        }
+
+        final long start = System.nanoTime();
+        ListenableFuture<TelegramResponse> result = getTransport().post(url, parameters);
+        Futures.addCallback(result, new FutureCallback<TelegramResponse>() {
+            @Override
+            public void onSuccess(TelegramResponse response) {
+                TelegramMetrics.response(response.getStatusCode(), System.nanoTime() - start);
+                if (response.getStatusCode() == TelegramResponse.NO_RESPONSE) {
+                    logger.log(Level.WARNING, "Error while sending notification to chat " + destination,
+                            response.getException());
+                } else if (response.isRateLimited()) {
+                    logger.log(Level.FINE, "Telegram rate limited chat " + destination + ", retry after "
+                            + response.getRetryAfter() + "s");
+                } else if (!response.isOk()) {
+                    logger.log(Level.WARNING, "Telegram post may have failed. Response: " + response);
+                } else {
+                    logger.fine("Posting succeeded");
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                logger.log(Level.WARNING, "Error while sending notification to chat " + destination, t);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The shared client of the legacy transport.
+     *
+     * @deprecated messages are sent through {@link #getTransport()}, override that instead
+     */
+    @Deprecated
+    protected HttpClient getHttpClient() {
+        return TelegramHttpClient.get();
+    }
+
+    /**
+     * The non-blocking {@link OkHttpTransport}, or the {@link CommonsHttpTransport} if the legacy
+     * transport was selected.
+     */
+    protected TelegramTransport getTransport() {
+        return LEGACY_TRANSPORT ? new CommonsHttpTransport() : OkHttpTransport.get();
+    }
 }
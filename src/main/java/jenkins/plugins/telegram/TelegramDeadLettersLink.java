@@ -0,0 +1,88 @@
+package jenkins.plugins.telegram;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+import java.util.List;
+
+/**
+ * Lets administrators inspect, replay and discard notifications that ran out of retries.
+ */
+@Extension
+public class TelegramDeadLettersLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        // only shown while there is something to look at
+        return getStore().size() > 0 ? "notepad.png" : null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return "telegram-dead-letters";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Telegram Dead Letters";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Telegram notifications that could not be delivered.";
+    }
+
+    public DeadLetterStore getStore() {
+        return DeadLetterStore.get();
+    }
+
+    public long getAttempts() {
+        return TelegramMetrics.getAttempts();
+    }
+
+    public long getSuccesses() {
+        return TelegramMetrics.getSuccesses();
+    }
+
+    public long getRetries() {
+        return TelegramMetrics.getRetries();
+    }
+
+    public long getGiveUps() {
+        return TelegramMetrics.getGiveUps();
+    }
+
+    @RequirePOST
+    public HttpResponse doReplay(@QueryParameter long id) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        DeadLetterStore store = getStore();
+        DeadLetterStore.DeadLetter letter = store.remove(id);
+        if (letter != null) {
+            store.replay(letter);
+        }
+        return HttpResponses.redirectToDot();
+    }
+
+    @RequirePOST
+    public HttpResponse doReplayAll() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        DeadLetterStore store = getStore();
+        List<DeadLetterStore.DeadLetter> letters = store.removeAll();
+        for (DeadLetterStore.DeadLetter letter : letters) {
+            store.replay(letter);
+        }
+        return HttpResponses.redirectToDot();
+    }
+
+    @RequirePOST
+    public HttpResponse doDiscard(@QueryParameter long id) {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        getStore().remove(id);
+        return HttpResponses.redirectToDot();
+    }
+}
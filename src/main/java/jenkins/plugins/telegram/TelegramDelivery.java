@@ -0,0 +1,32 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A queued message: Telegram's answer once it is known, and the ids its parts are journaled under in
+ * the outbox, which identify the message after a restart, see {@link TelegramDispatcher#resume(long[])}.
+ */
+public final class TelegramDelivery {
+
+    private final long[] outboxIds;
+    private final ListenableFuture<TelegramResponse> response;
+
+    TelegramDelivery(long[] outboxIds, ListenableFuture<TelegramResponse> response) {
+        this.outboxIds = outboxIds;
+        this.response = response;
+    }
+
+    /**
+     * The journal ids of the message's parts, empty if the outbox is disabled or could not journal it.
+     */
+    public long[] getOutboxIds() {
+        return outboxIds.clone();
+    }
+
+    /**
+     * Completed with the answer to the first part, or to the first part that failed.
+     */
+    public ListenableFuture<TelegramResponse> getResponse() {
+        return response;
+    }
+}
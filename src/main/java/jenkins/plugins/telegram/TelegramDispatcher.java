@@ -0,0 +1,730 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Executor;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded in-memory queue of outgoing Telegram messages, drained by a pool of sender threads.
+ * <p>
+ * Builds only enqueue their notifications, so a slow Telegram API or proxy no longer holds up
+ * run finalization. When the queue is full, the configured {@link OverflowPolicy} decides
+ * whether the oldest message is dropped, the caller waits, or the message is spilled to disk.
+ * Every message is journaled in the {@link Outbox} until it is done, so nothing queued is lost
+ * when Jenkins restarts.
+ */
+public final class TelegramDispatcher {
+
+    private static final Logger logger = Logger.getLogger(TelegramDispatcher.class.getName());
+
+    static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    static final int DEFAULT_SENDER_THREADS = 4;
+    /** How long Jenkins shutdown waits for queued messages to be sent. */
+    static final long SHUTDOWN_DRAIN_TIMEOUT = 30 * 1000L;
+    /** Threads rendering messages that read test results or change sets, see {@link #render}. */
+    static final int RENDER_THREADS = 2;
+
+    private static TelegramDispatcher instance;
+    private static ListeningExecutorService renderers;
+    /** Telegram's limits apply to the bot, so they are shared by every dispatcher generation. */
+    private static final RateLimiter rateLimiter = new RateLimiter();
+    private static final RetryPolicy retryPolicy = new RetryPolicy();
+    /** Answers to the messages sent again from the outbox after the restart, by journal id. */
+    private static final Map<Long, ListenableFuture<TelegramResponse>> resumed
+            = new ConcurrentHashMap<Long, ListenableFuture<TelegramResponse>>();
+
+    private final int queueCapacity;
+    private final int senderThreads;
+    private final OverflowPolicy overflowPolicy;
+    private final ArrayBlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor senders;
+    private final ScheduledThreadPoolExecutor scheduler;
+    /** Messages parked on the scheduler until their rate limit slot is due. */
+    private final Set<Delivery> deferred = Collections.newSetFromMap(new ConcurrentHashMap<Delivery, Boolean>());
+    /** Messages handed to the transport and not answered yet, notified once it is empty. */
+    private final Set<Delivery> sending = new HashSet<Delivery>();
+    private final Spill spill;
+
+    TelegramDispatcher(int queueCapacity, int senderThreads, OverflowPolicy overflowPolicy, File spillFile) {
+        this.queueCapacity = queueCapacity;
+        this.senderThreads = senderThreads;
+        this.overflowPolicy = overflowPolicy;
+        this.queue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+        this.spill = spillFile != null ? new Spill(spillFile) : null;
+        this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 60, TimeUnit.SECONDS, queue,
+                new NamingThreadFactory(new DaemonThreadFactory(), "Telegram sender"), new Overflow()) {
+            @Override
+            protected void afterExecute(Runnable r, Throwable t) {
+                super.afterExecute(r, t);
+                if (spill != null && !isShutdown() && queue.isEmpty()) {
+                    spill.reload();
+                }
+            }
+        };
+        this.senders.allowCoreThreadTimeOut(true);
+        this.scheduler = new ScheduledThreadPoolExecutor(1,
+                new NamingThreadFactory(new DaemonThreadFactory(), "Telegram scheduler"));
+    }
+
+    /**
+     * Returns the plugin-wide dispatcher, creating it from the global configuration on first use.
+     */
+    public static synchronized TelegramDispatcher get() {
+        if (instance == null) {
+            TelegramNotifier.DescriptorImpl descriptor = getDescriptor();
+            if (descriptor != null) {
+                instance = new TelegramDispatcher(descriptor.getQueueCapacity(), descriptor.getSenderThreads(),
+                        descriptor.getOverflowPolicy(), getSpillFile());
+            } else {
+                instance = new TelegramDispatcher(DEFAULT_QUEUE_CAPACITY, DEFAULT_SENDER_THREADS,
+                        OverflowPolicy.DROP_OLDEST, null);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Renders a message on the plugin's render threads, so a build does not wait for its test results
+     * and change sets to be summarised. The result is queued from there like any other message.
+     */
+    static ListenableFuture<String> render(Callable<String> message) {
+        ListeningExecutorService executor;
+        synchronized (TelegramDispatcher.class) {
+            if (renderers == null) {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(RENDER_THREADS, RENDER_THREADS, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new NamingThreadFactory(new DaemonThreadFactory(), "Telegram renderer"));
+                pool.allowCoreThreadTimeOut(true);
+                renderers = MoreExecutors.listeningDecorator(pool);
+            }
+            executor = renderers;
+        }
+        return executor.submit(message);
+    }
+
+    private static synchronized TelegramDispatcher current() {
+        return instance;
+    }
+
+    static int queueDepth() {
+        TelegramDispatcher dispatcher = current();
+        return dispatcher != null ? dispatcher.getQueueDepth() : 0;
+    }
+
+    static int deferredCount() {
+        TelegramDispatcher dispatcher = current();
+        return dispatcher != null ? dispatcher.deferred.size() : 0;
+    }
+
+    /**
+     * Applies new queue settings. Messages already queued on the previous dispatcher are still sent.
+     */
+    static void reconfigure(int queueCapacity, int senderThreads, OverflowPolicy overflowPolicy) {
+        TelegramDispatcher previous;
+        synchronized (TelegramDispatcher.class) {
+            previous = instance;
+            if (previous != null && previous.queueCapacity == queueCapacity
+                    && previous.senderThreads == senderThreads && previous.overflowPolicy == overflowPolicy) {
+                return;
+            }
+            instance = new TelegramDispatcher(queueCapacity, senderThreads, overflowPolicy, getSpillFile());
+        }
+        if (previous != null) {
+            // parked messages still fire and are handed over to the new dispatcher
+            previous.scheduler.shutdown();
+            previous.senders.shutdown();
+        }
+    }
+
+    /**
+     * Sends whatever was still queued when Jenkins went down, as recorded in the {@link Outbox}.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void resumeFromOutbox() {
+        // every spilled message is also journaled in the outbox
+        File spillFile = getSpillFile();
+        if (spillFile != null && spillFile.exists() && !spillFile.delete()) {
+            logger.warning("Could not delete " + spillFile);
+        }
+        List<Outbox.Entry> entries = Outbox.get().recover();
+        if (entries.isEmpty()) {
+            return;
+        }
+        logger.info("Resending " + entries.size() + " Telegram notification(s) queued before the restart");
+        TelegramDispatcher dispatcher = get();
+        for (Outbox.Entry entry : entries) {
+            StandardTelegramService service = new StandardTelegramService(entry.token,
+                    entry.message.getDestination().toString());
+            Delivery delivery = new Delivery(service, entry.message, entry.editMessageId,
+                    SettableFuture.<TelegramResponse>create());
+            delivery.outboxId = entry.id;
+            resumed.put(entry.id, delivery.result);
+            dispatcher.execute(delivery);
+        }
+    }
+
+    /**
+     * Follows messages queued before the restart, such as the one a resumed Pipeline step waits for.
+     * Messages still pending were sent again by {@link #resumeFromOutbox()}, the outcome of the others
+     * was journaled when they were done.
+     *
+     * @param outboxIds the journal ids of the message's parts, see {@link TelegramDelivery#getOutboxIds()}
+     * @return a future completed with {@code true} once every part was delivered, or {@code null} if the
+     * outbox does not know one of them, e.g. because it was disabled
+     */
+    public static ListenableFuture<Boolean> resume(long[] outboxIds) {
+        if (outboxIds.length == 0) {
+            return null;
+        }
+        List<ListenableFuture<Boolean>> parts = new ArrayList<ListenableFuture<Boolean>>(outboxIds.length);
+        for (long id : outboxIds) {
+            ListenableFuture<TelegramResponse> pending = resumed.get(id);
+            Boolean outcome = pending == null ? Outbox.get().outcome(id) : null;
+            if (pending != null) {
+                parts.add(TelegramResponse.delivered(pending));
+            } else if (outcome != null) {
+                parts.add(Futures.immediateFuture(outcome));
+            } else {
+                return null;
+            }
+        }
+        return Futures.transform(Futures.allAsList(parts), ALL_DELIVERED);
+    }
+
+    private static final Function<List<Boolean>, Boolean> ALL_DELIVERED = new Function<List<Boolean>, Boolean>() {
+        @Override
+        public Boolean apply(List<Boolean> delivered) {
+            return !delivered.contains(Boolean.FALSE);
+        }
+    };
+
+    @Terminator
+    public static void drainOnShutdown() throws InterruptedException {
+        ListeningExecutorService rendering;
+        synchronized (TelegramDispatcher.class) {
+            rendering = renderers;
+            renderers = null;
+        }
+        if (rendering != null) {
+            // messages still being rendered are queued before the queue is drained
+            rendering.shutdown();
+            rendering.awaitTermination(SHUTDOWN_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        MessageCoalescer.get().flushAll();
+        TelegramDispatcher dispatcher;
+        synchronized (TelegramDispatcher.class) {
+            dispatcher = instance;
+            instance = null;
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown(SHUTDOWN_DRAIN_TIMEOUT);
+        }
+        DeadLetterStore.get().flush();
+        Outbox.get().close();
+        OkHttpTransport.shutdown();
+        TelegramHttpClient.shutdown();
+    }
+
+    /**
+     * Queues a message for the given service.
+     *
+     * @return a future completed with Telegram's answer, once it accepted the message or it was given up on
+     */
+    public ListenableFuture<TelegramResponse> submit(StandardTelegramService service, String message) {
+        return submit(service, service.message(message), 0);
+    }
+
+    /**
+     * Queues a message sent with the service's token to the message's own chat.
+     */
+    public ListenableFuture<TelegramResponse> submit(StandardTelegramService service, TelegramMessage message) {
+        return submit(service, message, 0);
+    }
+
+    /**
+     * Queues several messages in one go: they are journaled together and handed to the sender threads
+     * back to back, in order.
+     *
+     * @return one future per message, in the same order
+     */
+    public List<ListenableFuture<TelegramResponse>> submitAll(StandardTelegramService service,
+                                                              List<TelegramMessage> messages) {
+        long[] outboxIds = Outbox.get().appendAll(service.getToken(), messages, 0);
+        List<ListenableFuture<TelegramResponse>> results = new ArrayList<ListenableFuture<TelegramResponse>>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            TelegramMessage message = messages.get(i);
+            Delivery delivery = new Delivery(service, message, 0, SettableFuture.<TelegramResponse>create());
+            delivery.outboxId = outboxIds[i];
+            TelegramMetrics.queued(message.getText());
+            execute(delivery);
+            results.add(delivery.result);
+        }
+        return results;
+    }
+
+    /**
+     * Queues a new text for a message sent before. If the message can no longer be edited, the text is
+     * sent as a new message instead.
+     */
+    public ListenableFuture<TelegramResponse> submitEdit(StandardTelegramService service, long messageId,
+                                                         TelegramMessage message) {
+        return submit(service, message, messageId);
+    }
+
+    private ListenableFuture<TelegramResponse> submit(StandardTelegramService service, TelegramMessage message,
+                                                      long editMessageId) {
+        return submitJournaled(service, message, editMessageId,
+                Outbox.get().append(service.getToken(), message, editMessageId));
+    }
+
+    /**
+     * Journals the parts of a message up front, so all of them are sent after a restart even though
+     * each part is only queued once the one before it was sent.
+     *
+     * @param editMessageId the message the first part replaces, {@code 0} for a new message
+     * @return the journal ids to queue the parts with, see {@link #submitJournaled}
+     */
+    long[] journal(StandardTelegramService service, List<TelegramMessage> parts, long editMessageId) {
+        return Outbox.get().appendAll(service.getToken(), parts, editMessageId);
+    }
+
+    /**
+     * Queues a message that is already journaled under {@code outboxId}.
+     */
+    ListenableFuture<TelegramResponse> submitJournaled(StandardTelegramService service, TelegramMessage message,
+                                                       long editMessageId, long outboxId) {
+        Delivery delivery = new Delivery(service, message, editMessageId, SettableFuture.<TelegramResponse>create());
+        delivery.outboxId = outboxId;
+        TelegramMetrics.queued(message.getText());
+        execute(delivery);
+        return delivery.result;
+    }
+
+    /**
+     * Number of messages waiting for a sender thread.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting messages and waits up to {@code timeoutMillis} in all for the queue to drain and
+     * the messages on their way to be answered.
+     */
+    void shutdown(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        scheduler.shutdownNow();
+        senders.shutdown();
+        List<Runnable> pending = new ArrayList<Runnable>(deferred);
+        deferred.clear();
+        if (!senders.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            pending.addAll(senders.shutdownNow());
+        }
+        // answers on their way still acknowledge their outbox entries
+        synchronized (sending) {
+            long remaining = deadline - System.currentTimeMillis();
+            while (!sending.isEmpty() && remaining > 0) {
+                sending.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+        if (!pending.isEmpty()) {
+            for (Runnable r : pending) {
+                ((Delivery) r).abandon();
+            }
+            logger.warning(pending.size() + " Telegram notification(s) could not be sent before shutdown"
+                    + (Outbox.get().isEnabled() ? ", they will be sent after the restart" : ""));
+        }
+    }
+
+    private static TelegramNotifier.DescriptorImpl getDescriptor() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? jenkins.getDescriptorByType(TelegramNotifier.DescriptorImpl.class) : null;
+    }
+
+    private static File getSpillFile() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? new File(new File(jenkins.getRootDir(), "telegram"), "spill.dat") : null;
+    }
+
+    /**
+     * Sends a message once both the chat and the global rate limits allow it. Messages that have to
+     * wait, including retries, are parked on the scheduler instead of blocking a sender thread.
+     */
+    private void process(final Delivery delivery) {
+        if (delivery.result.isCancelled()) {
+            return;
+        }
+        // topics of a chat share its rate limit
+        String chatId = delivery.message.getDestination().getChatId();
+        if (!delivery.chatSlotReserved) {
+            delivery.chatSlotReserved = true;
+            long wait = rateLimiter.reserve(chatId);
+            if (wait > 0) {
+                TelegramMetrics.rateLimitWait(wait);
+                defer(delivery, wait);
+                return;
+            }
+        }
+        long paused = rateLimiter.pausedFor(chatId);
+        if (paused > 0) {
+            TelegramMetrics.rateLimitWait(paused);
+            defer(delivery, paused);
+            return;
+        }
+        long wait = rateLimiter.tryAcquireGlobal();
+        if (wait > 0) {
+            TelegramMetrics.rateLimitWait(wait);
+            defer(delivery, wait);
+            return;
+        }
+        TelegramMetrics.attempt();
+        synchronized (sending) {
+            sending.add(delivery);
+        }
+        final String chat = chatId;
+        // the transport answers on its own threads, the sender thread is free again right away
+        Futures.addCallback(delivery.service.sendAsync(delivery.message, delivery.editMessageId),
+                new FutureCallback<TelegramResponse>() {
+                    @Override
+                    public void onSuccess(TelegramResponse response) {
+                        answered(delivery);
+                        handle(delivery, chat, response);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        answered(delivery);
+                        logger.log(Level.WARNING, "Error while sending notification", t);
+                        // retried, dead-lettered and acknowledged like any other failed attempt
+                        handle(delivery, chat, TelegramResponse.failed(t));
+                    }
+                });
+    }
+
+    private void answered(Delivery delivery) {
+        synchronized (sending) {
+            sending.remove(delivery);
+            if (sending.isEmpty()) {
+                sending.notifyAll();
+            }
+        }
+    }
+
+    private void handle(Delivery delivery, String chatId, TelegramResponse response) {
+        delivery.attempts++;
+        if (response.isOk() || (delivery.editMessageId > 0 && response.isNotModified())) {
+            TelegramMetrics.success();
+            TelegramMetrics.delivered(System.nanoTime() - delivery.queuedAt);
+            Outbox.get().acknowledge(delivery.outboxId, true);
+            delivery.result.set(response);
+            return;
+        }
+        if (response.isRateLimited() && response.getRetryAfter() > 0) {
+            rateLimiter.pause(chatId, TimeUnit.SECONDS.toMillis(response.getRetryAfter()));
+        }
+        if (retryPolicy.shouldRetry(response, delivery.attempts)) {
+            TelegramMetrics.retry();
+            delivery.chatSlotReserved = false;
+            defer(delivery, retryPolicy.delayBeforeRetry(response, delivery.attempts));
+            return;
+        }
+        if (delivery.editMessageId > 0) {
+            // deleted, too old or otherwise not editable, post the text as a new message
+            logger.fine("Could not edit Telegram message " + delivery.editMessageId + ", sending a new one: "
+                    + response);
+            delivery.editMessageId = 0;
+            delivery.chatSlotReserved = false;
+            defer(delivery, 0);
+            return;
+        }
+        TelegramMetrics.giveUp();
+        String destination = delivery.message.getDestination().toString();
+        logger.warning("Giving up on Telegram notification for chat " + destination + " after "
+                + delivery.attempts + " attempt(s): " + response);
+        DeadLetterStore.get().add(delivery.service.getToken(), delivery.message, delivery.queuedEdit, response,
+                delivery.attempts);
+        Outbox.get().acknowledge(delivery.outboxId, false);
+        delivery.result.set(response);
+    }
+
+    private void execute(Delivery delivery) {
+        delivery.dispatcher = this;
+        senders.execute(delivery);
+    }
+
+    private void defer(final Delivery delivery, long delayMillis) {
+        deferred.add(delivery);
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (deferred.remove(delivery)) {
+                        execute(delivery);
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down, the outbox still has it
+            deferred.remove(delivery);
+            delivery.abandon();
+        }
+    }
+
+    /**
+     * A single queued message.
+     */
+    static final class Delivery implements Runnable {
+        final StandardTelegramService service;
+        final TelegramMessage message;
+        final SettableFuture<TelegramResponse> result;
+        /** {@link System#nanoTime()} when the message was queued, for the delivery lag. */
+        final long queuedAt = System.nanoTime();
+        TelegramDispatcher dispatcher;
+        /** Journal id in the {@link Outbox}, {@code 0} if not journaled. */
+        long outboxId;
+        /** Message to replace with this text, {@code 0} to send a new message. */
+        long editMessageId;
+        /** The {@link #editMessageId} the message was queued with, before falling back to a new message. */
+        final long queuedEdit;
+        boolean chatSlotReserved;
+        int attempts;
+
+        Delivery(StandardTelegramService service, TelegramMessage message, long editMessageId,
+                 SettableFuture<TelegramResponse> result) {
+            this.service = service;
+            this.message = message;
+            this.editMessageId = editMessageId;
+            this.queuedEdit = editMessageId;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            dispatcher.process(this);
+        }
+
+        void drop(String reason) {
+            logger.warning("Dropping Telegram notification for chat " + message.getDestination() + ": " + reason);
+            Outbox.get().acknowledge(outboxId, false);
+            result.set(TelegramResponse.notSent(reason));
+        }
+
+        /**
+         * Gives up on sending for now without removing the message from the outbox.
+         */
+        void abandon() {
+            result.set(TelegramResponse.notSent("not sent before shutdown"));
+        }
+    }
+
+    private final class Overflow implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            Delivery delivery = (Delivery) r;
+            if (executor.isShutdown()) {
+                // the dispatcher was replaced by a reconfiguration, hand over to the current one
+                TelegramDispatcher current = current();
+                if (current != null && current != TelegramDispatcher.this) {
+                    current.execute(delivery);
+                } else {
+                    delivery.abandon();
+                }
+                return;
+            }
+            switch (overflowPolicy) {
+                case BLOCK:
+                    // only builds wait for room; the scheduler re-queueing retries, timers and the
+                    // Pipeline thread must not stall, they spill or drop instead
+                    if (Executor.currentExecutor() != null) {
+                        try {
+                            queue.put(delivery);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            delivery.drop("interrupted while waiting for room in the queue");
+                        }
+                        break;
+                    }
+                    // fall through
+                case SPILL:
+                    if (spill != null && spill.write(delivery)) {
+                        break;
+                    }
+                    // fall through when there is nowhere to spill to
+                default:
+                    dropOldest(delivery);
+            }
+        }
+
+        private void dropOldest(Delivery delivery) {
+            Runnable oldest = queue.poll();
+            if (oldest != null) {
+                ((Delivery) oldest).drop("queue is full (" + queueCapacity + " messages)");
+            }
+            execute(delivery);
+        }
+    }
+
+    /**
+     * Append-only file holding messages that did not fit into the queue.
+     */
+    private final class Spill {
+        private final File file;
+        private final AtomicLong ids = new AtomicLong();
+        /** Callers still waiting for spilled messages; the messages themselves live on disk. */
+        private final Map<Long, SettableFuture<TelegramResponse>> waiting
+                = new ConcurrentHashMap<Long, SettableFuture<TelegramResponse>>();
+        private volatile boolean pending;
+
+        Spill(File file) {
+            this.file = file;
+        }
+
+        synchronized boolean write(Delivery delivery) {
+            long id = ids.incrementAndGet();
+            DataOutputStream out = null;
+            try {
+                file.getParentFile().mkdirs();
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                out.writeLong(id);
+                out.writeLong(delivery.outboxId);
+                out.writeLong(delivery.editMessageId);
+                writeString(out, Secret.fromString(delivery.service.getToken()).getEncryptedValue());
+                writeString(out, delivery.service.getChatId());
+                writeString(out, delivery.message.getDestination().toString());
+                writeString(out, delivery.message.getText());
+                writeString(out, delivery.message.getParseMode());
+                out.writeBoolean(delivery.message.isSilent());
+                writeString(out, delivery.message.getReplyMarkup());
+                out.flush();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not spill Telegram notification to " + file, e);
+                return false;
+            } finally {
+                closeQuietly(out);
+            }
+            waiting.put(id, delivery.result);
+            pending = true;
+            return true;
+        }
+
+        /**
+         * Moves spilled messages back into the queue. Messages that still do not fit are spilled again.
+         */
+        void reload() {
+            if (!pending) {
+                return;
+            }
+            List<Delivery> deliveries = new ArrayList<Delivery>();
+            synchronized (this) {
+                pending = false;
+                if (!file.exists()) {
+                    return;
+                }
+                DataInputStream in = null;
+                try {
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                    while (true) {
+                        long id;
+                        try {
+                            id = in.readLong();
+                        } catch (EOFException e) {
+                            break;
+                        }
+                        long outboxId = in.readLong();
+                        long editMessageId = in.readLong();
+                        StandardTelegramService service = new StandardTelegramService(
+                                Secret.toString(Secret.fromString(readString(in))), readString(in));
+                        TelegramMessage message = TelegramMessage.to(readString(in))
+                                .text(readString(in))
+                                .parseMode(emptyToNull(readString(in)))
+                                .silent(in.readBoolean())
+                                .replyMarkup(emptyToNull(readString(in)))
+                                .build();
+                        SettableFuture<TelegramResponse> result = waiting.remove(id);
+                        Delivery delivery = new Delivery(service, message, editMessageId,
+                                result != null ? result : SettableFuture.<TelegramResponse>create());
+                        delivery.outboxId = outboxId;
+                        deliveries.add(delivery);
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Could not read spilled Telegram notifications from " + file, e);
+                } finally {
+                    closeQuietly(in);
+                }
+                if (!file.delete()) {
+                    logger.warning("Could not delete " + file);
+                }
+            }
+            for (Delivery delivery : deliveries) {
+                execute(delivery);
+            }
+        }
+
+        private void writeString(DataOutputStream out, String s) throws IOException {
+            byte[] bytes = (s != null ? s : "").getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private String emptyToNull(String s) {
+            return s.length() > 0 ? s : null;
+        }
+
+        private String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+
+        private void closeQuietly(Closeable closeable) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package jenkins.plugins.telegram;
+
+import hudson.ProxyConfiguration;
+import hudson.Util;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Plugin-wide {@link HttpClient} backed by a pooled, multi-threaded connection manager.
+ * <p>
+ * All {@link StandardTelegramService} instances share this client, so connections to the
+ * Telegram API are kept alive between notifications instead of paying a new TCP and TLS
+ * handshake per message. The client is only rebuilt when the Jenkins proxy configuration changes;
+ * requests already running on the old client then finish on it before its connections are closed.
+ */
+final class TelegramHttpClient {
+
+    private static final Logger logger = Logger.getLogger(TelegramHttpClient.class.getName());
+
+    static final int MAX_CONNECTIONS_PER_HOST = 20;
+    static final int MAX_TOTAL_CONNECTIONS = 40;
+    /** Pooled connections idle for longer than this are closed. */
+    static final long IDLE_CONNECTION_TIMEOUT = 60 * 1000L;
+    /** How often the pool is checked for idle connections. */
+    static final long IDLE_CHECK_INTERVAL = 10 * 1000L;
+    static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000;
+    /** Longest wait for the next bytes of a response. */
+    static final int READ_TIMEOUT_MILLIS = 30 * 1000;
+    /** Longest wait for the requests of a replaced client to return their connections. */
+    static final long RETIRE_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+
+    private static HttpClient client;
+    private static MultiThreadedHttpConnectionManager connectionManager;
+    private static IdleConnectionTimeoutThread idleConnectionEvictor;
+    private static String proxyKey;
+
+    private TelegramHttpClient() {
+    }
+
+    /**
+     * Returns the shared client, creating it on first use or when the proxy settings have changed.
+     */
+    static synchronized HttpClient get() {
+        ProxyConfiguration proxy = getProxy();
+        String key = keyOf(proxy);
+        if (client == null || !key.equals(proxyKey)) {
+            if (client != null) {
+                logger.info("Proxy configuration changed, rebuilding Telegram HTTP client");
+                new Retirement(connectionManager, idleConnectionEvictor).run();
+            }
+            client = create(proxy);
+            proxyKey = key;
+        }
+        return client;
+    }
+
+    /**
+     * Closes all pooled connections and stops the idle connection evictor.
+     */
+    static synchronized void shutdown() {
+        if (idleConnectionEvictor != null) {
+            idleConnectionEvictor.shutdown();
+            idleConnectionEvictor = null;
+        }
+        if (connectionManager != null) {
+            connectionManager.shutdown();
+            connectionManager = null;
+        }
+        client = null;
+        proxyKey = null;
+    }
+
+    /**
+     * Closes a replaced connection manager once the requests still running on it have released their
+     * connections, checking every {@link #IDLE_CHECK_INTERVAL}.
+     */
+    private static final class Retirement implements Runnable {
+        private final MultiThreadedHttpConnectionManager connectionManager;
+        private final IdleConnectionTimeoutThread idleConnectionEvictor;
+        private final long deadline = System.currentTimeMillis() + RETIRE_TIMEOUT_MILLIS;
+
+        Retirement(MultiThreadedHttpConnectionManager connectionManager,
+                   IdleConnectionTimeoutThread idleConnectionEvictor) {
+            this.connectionManager = connectionManager;
+            this.idleConnectionEvictor = idleConnectionEvictor;
+        }
+
+        @Override
+        public void run() {
+            connectionManager.closeIdleConnections(0);
+            if (connectionManager.getConnectionsInPool() > 0 && System.currentTimeMillis() < deadline) {
+                Timer.get().schedule(this, IDLE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                return;
+            }
+            idleConnectionEvictor.shutdown();
+            connectionManager.shutdown();
+        }
+    }
+
+    private static HttpClient create(ProxyConfiguration proxy) {
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+        params.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+        params.setStaleCheckingEnabled(true);
+        params.setConnectionTimeout(CONNECT_TIMEOUT_MILLIS);
+        params.setSoTimeout(READ_TIMEOUT_MILLIS);
+
+        idleConnectionEvictor = new IdleConnectionTimeoutThread();
+        idleConnectionEvictor.setName("Telegram HTTP idle connection evictor");
+        idleConnectionEvictor.setConnectionTimeout(IDLE_CONNECTION_TIMEOUT);
+        idleConnectionEvictor.setTimeoutInterval(IDLE_CHECK_INTERVAL);
+        idleConnectionEvictor.addConnectionManager(connectionManager);
+        idleConnectionEvictor.start();
+
+        HttpClient httpClient = new HttpClient(connectionManager);
+        if (proxy != null) {
+            httpClient.getHostConfiguration().setProxy(proxy.name, proxy.port);
+            String username = proxy.getUserName();
+            String password = proxy.getPassword();
+            // Consider it to be passed if username specified. Sufficient?
+            if (username != null && !"".equals(username.trim())) {
+                logger.info("Using proxy authentication (user=" + username + ")");
+                // http://hc.apache.org/httpclient-3.x/authentication.html#Proxy_Authentication
+                httpClient.getState().setProxyCredentials(AuthScope.ANY,
+                        new UsernamePasswordCredentials(username, password));
+            }
+        }
+        return httpClient;
+    }
+
+    private static ProxyConfiguration getProxy() {
+        Jenkins instance = Jenkins.getInstance();
+        return instance != null ? instance.proxy : null;
+    }
+
+    /**
+     * Identifies a proxy configuration to tell when it changed. The password only goes in as a digest,
+     * so it is not kept in plain text for as long as the client lives.
+     */
+    static String keyOf(ProxyConfiguration proxy) {
+        if (proxy == null) {
+            return "";
+        }
+        String password = proxy.getPassword();
+        return proxy.name + ':' + proxy.port + ':' + proxy.getUserName() + ':'
+                + (password != null ? Util.getDigestOf(password) : "");
+    }
+}
@@ -0,0 +1,62 @@
+package jenkins.plugins.telegram;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Telegram notifications for jobs without publishers, such as pipelines. {@link TelegramListener}
+ * sends their start and completion notices with the settings of the wrapped {@link TelegramNotifier},
+ * so they are filtered and rendered exactly like those of a freestyle project.
+ */
+public class TelegramJobProperty extends JobProperty<Job<?, ?>> {
+
+    private final TelegramNotifier notifier;
+
+    @DataBoundConstructor
+    public TelegramJobProperty(TelegramNotifier notifier) {
+        this.notifier = notifier;
+    }
+
+    public TelegramNotifier getNotifier() {
+        return notifier;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends JobPropertyDescriptor {
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean isApplicable(Class<? extends Job> jobType) {
+            // projects with publishers are configured through the TelegramNotifier post-build action
+            return !AbstractProject.class.isAssignableFrom(jobType);
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Telegram Notifications";
+        }
+
+        /**
+         * The notification settings share their form and defaults with the post-build action.
+         */
+        public TelegramNotifier.DescriptorImpl getNotifierDescriptor() {
+            return Jenkins.getInstance().getDescriptorByType(TelegramNotifier.DescriptorImpl.class);
+        }
+
+        @Override
+        public TelegramJobProperty newInstance(StaplerRequest sr, JSONObject formData) throws FormException {
+            JSONObject notifications = formData.optJSONObject("telegramNotifications");
+            if (notifications == null) {
+                return null;
+            }
+            return new TelegramJobProperty(getNotifierDescriptor().newInstance(sr, notifications));
+        }
+    }
+}
@@ -2,59 +2,85 @@ package jenkins.plugins.telegram;
 
 import hudson.Extension;
 import hudson.model.AbstractBuild;
-import hudson.model.AbstractProject;
-import hudson.model.BuildListener;
-import hudson.model.Descriptor;
+import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.model.listeners.RunListener;
-import hudson.tasks.Publisher;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
+/**
+ * Sends the notices of every kind of run. Projects with publishers configure a {@link TelegramNotifier},
+ * other jobs such as pipelines a {@link TelegramJobProperty}; both go through the same {@link ActiveNotifier}.
+ * Builds matching a global {@link RoutingRule} are announced to its chats as well.
+ */
 @Extension
 @SuppressWarnings("rawtypes")
-public class TelegramListener extends RunListener<AbstractBuild> {
+public class TelegramListener extends RunListener<Run> {
 
     private static final Logger logger = Logger.getLogger(TelegramListener.class.getName());
 
     public TelegramListener() {
-        super(AbstractBuild.class);
+        super(Run.class);
     }
 
     @Override
-    public void onCompleted(AbstractBuild r, TaskListener listener) {
-        getNotifier(r.getProject(), listener).completed(r);
+    public void onCompleted(Run r, TaskListener listener) {
+        for (FineGrainedNotifier notifier : getNotifiers(r, listener)) {
+            notifier.completed(r);
+        }
         super.onCompleted(r, listener);
     }
 
     @Override
-    public void onStarted(AbstractBuild r, TaskListener listener) {
-        // getNotifier(r.getProject()).started(r);
-        // super.onStarted(r, listener);
+    public void onStarted(Run r, TaskListener listener) {
+        // projects with publishers announce the start from TelegramNotifier.prebuild
+        if (!(r instanceof AbstractBuild)) {
+            for (TelegramNotifier notifier : TelegramNotifierCache.get(r.getParent())) {
+                if (notifier.getStartNotification()) {
+                    new ActiveNotifier(notifier, listener).started(r);
+                }
+            }
+        }
+        for (TelegramNotifier notifier : getRoutingTable().route(r, true)) {
+            new ActiveNotifier(notifier, listener).started(r);
+        }
     }
 
     @Override
-    public void onDeleted(AbstractBuild r) {
+    public void onDeleted(Run r) {
         // getNotifier(r.getProject()).deleted(r);
         // super.onDeleted(r);
     }
 
     @Override
-    public void onFinalized(AbstractBuild r) {
+    public void onFinalized(Run r) {
         // getNotifier(r.getProject()).finalized(r);
         // super.onFinalized(r);
     }
 
     @SuppressWarnings("unchecked")
-    FineGrainedNotifier getNotifier(AbstractProject project, TaskListener listener) {
-        Map<Descriptor<Publisher>, Publisher> map = project.getPublishersList().toMap();
-        for (Publisher publisher : map.values()) {
-            if (publisher instanceof TelegramNotifier) {
-                return new ActiveNotifier((TelegramNotifier) publisher, (BuildListener)listener);
-            }
+    List<FineGrainedNotifier> getNotifiers(Run r, TaskListener listener) {
+        List<TelegramNotifier> configured = TelegramNotifierCache.get(r.getParent());
+        List<TelegramNotifier> routed = getRoutingTable().route(r, false);
+        if (configured.isEmpty() && routed.isEmpty()) {
+            return Collections.emptyList();
         }
-        return new DisabledNotifier();
+        List<FineGrainedNotifier> notifiers = new ArrayList<FineGrainedNotifier>(configured.size() + routed.size());
+        for (TelegramNotifier notifier : configured) {
+            notifiers.add(new ActiveNotifier(notifier, listener));
+        }
+        for (TelegramNotifier notifier : routed) {
+            notifiers.add(new ActiveNotifier(notifier, listener));
+        }
+        return notifiers;
+    }
+
+    private static RoutingTable getRoutingTable() {
+        TelegramNotifier.DescriptorImpl descriptor = TelegramNotifier.globalSettings();
+        return descriptor != null ? descriptor.getRoutingTable() : RoutingTable.EMPTY;
     }
 
 }
@@ -0,0 +1,105 @@
+package jenkins.plugins.telegram;
+
+/**
+ * A message to send through the Bot API's {@code sendMessage}: the chat and optional forum topic,
+ * the text and how Telegram should present it.
+ */
+public final class TelegramMessage {
+
+    /** Default parse mode, notifications are rendered as Telegram HTML. */
+    public static final String HTML = "HTML";
+
+    private final ChatDestination destination;
+    private final String text;
+    private final String parseMode;
+    private final boolean silent;
+    private final String replyMarkup;
+
+    private TelegramMessage(ChatDestination destination, String text, String parseMode, boolean silent,
+                            String replyMarkup) {
+        this.destination = destination;
+        this.text = text;
+        this.parseMode = parseMode;
+        this.silent = silent;
+        this.replyMarkup = replyMarkup;
+    }
+
+    /**
+     * Starts a message to {@code chat} or {@code chat:topic}, formatted as HTML.
+     */
+    public static Builder to(String destination) {
+        return new Builder(ChatDestination.parse(destination != null ? destination : ""));
+    }
+
+    public ChatDestination getDestination() {
+        return destination;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * {@code HTML}, {@code MarkdownV2} or {@code null} for plain text.
+     */
+    public String getParseMode() {
+        return parseMode;
+    }
+
+    /**
+     * Whether the message is delivered without a notification sound ({@code disable_notification}).
+     */
+    public boolean isSilent() {
+        return silent;
+    }
+
+    /**
+     * JSON serialized inline keyboard or other reply markup, {@code null} if none.
+     */
+    public String getReplyMarkup() {
+        return replyMarkup;
+    }
+
+    /**
+     * The same message with another text, e.g. one part of a split message.
+     */
+    TelegramMessage withText(String text) {
+        return new TelegramMessage(destination, text, parseMode, silent, replyMarkup);
+    }
+
+    public static final class Builder {
+        private final ChatDestination destination;
+        private String text = "";
+        private String parseMode = HTML;
+        private boolean silent;
+        private String replyMarkup;
+
+        private Builder(ChatDestination destination) {
+            this.destination = destination;
+        }
+
+        public Builder text(String text) {
+            this.text = text;
+            return this;
+        }
+
+        public Builder parseMode(String parseMode) {
+            this.parseMode = parseMode;
+            return this;
+        }
+
+        public Builder silent(boolean silent) {
+            this.silent = silent;
+            return this;
+        }
+
+        public Builder replyMarkup(String replyMarkup) {
+            this.replyMarkup = replyMarkup;
+            return this;
+        }
+
+        public TelegramMessage build() {
+            return new TelegramMessage(destination, text, parseMode, silent, replyMarkup);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package jenkins.plugins.telegram;
+
+import hudson.model.InvisibleAction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the start notice sent for a build in each chat, so the result can replace it instead of
+ * being posted as another message. Saved with the build.
+ */
+public class TelegramMessageAction extends InvisibleAction {
+
+    /** Message id by destination, {@code chat} or {@code chat:topic}. */
+    private final Map<String, Long> startMessages = new HashMap<String, Long>();
+
+    public synchronized long getStartMessageId(String destination) {
+        Long messageId = startMessages.get(destination);
+        return messageId != null ? messageId : 0;
+    }
+
+    synchronized void setStartMessageId(String destination, long messageId) {
+        startMessages.put(destination, messageId);
+    }
+}
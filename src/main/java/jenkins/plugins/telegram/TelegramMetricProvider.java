@@ -0,0 +1,133 @@
+package jenkins.plugins.telegram;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes {@link TelegramMetrics} to the Metrics plugin, if it is installed. The counters are read from
+ * {@link TelegramMetrics}; latencies and message sizes are fed into Metrics timers and histograms, so
+ * reporters get their usual rates and percentiles.
+ */
+@Extension(optional = true)
+public class TelegramMetricProvider extends MetricProvider {
+
+    private static final String PREFIX = "telegram";
+
+    private final Timer sendLatency = new Timer();
+    private final Timer deliveryLag = new Timer();
+    private final Timer rateLimitWait = new Timer();
+    private final Timer renderTime = new Timer();
+    private final Histogram messageSize = new Histogram(new ExponentiallyDecayingReservoir());
+
+    public TelegramMetricProvider() {
+        TelegramMetrics.addListener(new TelegramMetrics.Listener() {
+            @Override
+            public void sent(long nanos) {
+                sendLatency.update(nanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public void delivered(long nanos) {
+                deliveryLag.update(nanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public void rateLimitWait(long millis) {
+                rateLimitWait.update(millis, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void rendered(long nanos) {
+                renderTime.update(nanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public void queued(int length) {
+                messageSize.update(length);
+            }
+        });
+    }
+
+    @Override
+    public MetricSet getMetricSet() {
+        final Map<String, Metric> metrics = new HashMap<String, Metric>();
+        metrics.put(MetricRegistry.name(PREFIX, "attempts"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TelegramMetrics.getAttempts();
+            }
+        });
+        metrics.put(MetricRegistry.name(PREFIX, "successes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TelegramMetrics.getSuccesses();
+            }
+        });
+        metrics.put(MetricRegistry.name(PREFIX, "retries"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TelegramMetrics.getRetries();
+            }
+        });
+        metrics.put(MetricRegistry.name(PREFIX, "giveUps"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TelegramMetrics.getGiveUps();
+            }
+        });
+        metrics.put(MetricRegistry.name(PREFIX, "queue", "depth"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return TelegramMetrics.getQueueDepth();
+            }
+        });
+        metrics.put(MetricRegistry.name(PREFIX, "queue", "deferred"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return TelegramMetrics.getDeferred();
+            }
+        });
+        // one number per status class, reporters cannot export a map; 429 is counted apart from the other 4xx
+        addResponses(metrics, "none", 0, 0);
+        addResponses(metrics, "2xx", 200, 299);
+        metrics.put(MetricRegistry.name(PREFIX, "responses", "4xx"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TelegramMetrics.getResponses(400, 499) - TelegramMetrics.getResponses(429, 429);
+            }
+        });
+        addResponses(metrics, "429", 429, 429);
+        addResponses(metrics, "5xx", 500, 599);
+        metrics.put(MetricRegistry.name(PREFIX, "sendLatency"), sendLatency);
+        metrics.put(MetricRegistry.name(PREFIX, "deliveryLag"), deliveryLag);
+        metrics.put(MetricRegistry.name(PREFIX, "rateLimitWait"), rateLimitWait);
+        metrics.put(MetricRegistry.name(PREFIX, "renderTime"), renderTime);
+        metrics.put(MetricRegistry.name(PREFIX, "messageSizeChars"), messageSize);
+        return new MetricSet() {
+            @Override
+            public Map<String, Metric> getMetrics() {
+                return metrics;
+            }
+        };
+    }
+
+    private static void addResponses(Map<String, Metric> metrics, String statusClass, final int from, final int to) {
+        metrics.put(MetricRegistry.name(PREFIX, "responses", statusClass), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TelegramMetrics.getResponses(from, to);
+            }
+        });
+    }
+}
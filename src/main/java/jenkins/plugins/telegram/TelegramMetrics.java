@@ -0,0 +1,305 @@
+package jenkins.plugins.telegram;
+
+import net.sf.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms describing how the notification pipeline behaves.
+ * <p>
+ * Exposed as JSON by {@link TelegramMetricsAction} and to the Metrics plugin by
+ * {@link TelegramMetricProvider} when it is installed.
+ */
+public final class TelegramMetrics {
+
+    private static final long[] MILLIS_BOUNDS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000,
+            60000, 300000};
+    private static final long[] MICROS_BOUNDS = {10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 50000, 100000};
+    private static final long[] LENGTH_BOUNDS = {128, 256, 512, 1024, 2048, 4096, 8192, 16384};
+
+    private static final AtomicLong attempts = new AtomicLong();
+    private static final AtomicLong successes = new AtomicLong();
+    private static final AtomicLong retries = new AtomicLong();
+    private static final AtomicLong giveUps = new AtomicLong();
+    private static final ConcurrentMap<Integer, AtomicLong> responses = new ConcurrentHashMap<Integer, AtomicLong>();
+    private static final Histogram sendLatency = new Histogram(MILLIS_BOUNDS);
+    private static final Histogram deliveryLag = new Histogram(MILLIS_BOUNDS);
+    private static final Histogram rateLimitWaits = new Histogram(MILLIS_BOUNDS);
+    private static final Histogram renderTime = new Histogram(MICROS_BOUNDS);
+    private static final Histogram messageSize = new Histogram(LENGTH_BOUNDS);
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private TelegramMetrics() {
+    }
+
+    /**
+     * Receives the samples of the histograms as they are recorded, for reporters that keep histograms
+     * of their own, such as {@link TelegramMetricProvider}.
+     */
+    interface Listener {
+        void sent(long nanos);
+
+        void delivered(long nanos);
+
+        void rateLimitWait(long millis);
+
+        void rendered(long nanos);
+
+        void queued(int length);
+    }
+
+    static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    static void attempt() {
+        attempts.incrementAndGet();
+    }
+
+    static void success() {
+        successes.incrementAndGet();
+    }
+
+    static void retry() {
+        retries.incrementAndGet();
+    }
+
+    static void giveUp() {
+        giveUps.incrementAndGet();
+    }
+
+    /**
+     * Records a call to the Telegram API; calls without a response count as status {@code 0}.
+     */
+    static void response(int statusCode, long nanos) {
+        AtomicLong count = responses.get(statusCode);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = responses.putIfAbsent(statusCode, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        sendLatency.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+        for (Listener listener : listeners) {
+            listener.sent(nanos);
+        }
+    }
+
+    /**
+     * Records the time from queueing a message until Telegram accepted it.
+     */
+    static void delivered(long nanos) {
+        deliveryLag.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+        for (Listener listener : listeners) {
+            listener.delivered(nanos);
+        }
+    }
+
+    static void rateLimitWait(long millis) {
+        rateLimitWaits.record(millis);
+        for (Listener listener : listeners) {
+            listener.rateLimitWait(millis);
+        }
+    }
+
+    static void rendered(long nanos) {
+        renderTime.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        for (Listener listener : listeners) {
+            listener.rendered(nanos);
+        }
+    }
+
+    static void queued(String message) {
+        messageSize.record(message.length());
+        for (Listener listener : listeners) {
+            listener.queued(message.length());
+        }
+    }
+
+    /** Calls made to the Telegram API, including retries. */
+    public static long getAttempts() {
+        return attempts.get();
+    }
+
+    /** Messages accepted by Telegram. */
+    public static long getSuccesses() {
+        return successes.get();
+    }
+
+    /** Failed calls that were scheduled to be tried again. */
+    public static long getRetries() {
+        return retries.get();
+    }
+
+    /** Messages that failed permanently or ran out of retries. */
+    public static long getGiveUps() {
+        return giveUps.get();
+    }
+
+    /** Calls per HTTP status code, {@code 0} for calls that got no response. */
+    public static Map<Integer, Long> getResponses() {
+        Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, AtomicLong> entry : responses.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /** Calls answered with an HTTP status code from {@code from} to {@code to}, both included. */
+    public static long getResponses(int from, int to) {
+        long total = 0;
+        for (Map.Entry<Integer, AtomicLong> entry : responses.entrySet()) {
+            if (entry.getKey() >= from && entry.getKey() <= to) {
+                total += entry.getValue().get();
+            }
+        }
+        return total;
+    }
+
+    /** Duration of single Telegram API calls in milliseconds. */
+    public static Histogram getSendLatency() {
+        return sendLatency;
+    }
+
+    /** Milliseconds from queueing a message until Telegram accepted it, including waits and retries. */
+    public static Histogram getDeliveryLag() {
+        return deliveryLag;
+    }
+
+    /** Milliseconds messages were held back by the rate limits. */
+    public static Histogram getRateLimitWaits() {
+        return rateLimitWaits;
+    }
+
+    /** Time spent rendering build messages in microseconds. */
+    public static Histogram getRenderTime() {
+        return renderTime;
+    }
+
+    /** Length of queued messages in characters. */
+    public static Histogram getMessageSize() {
+        return messageSize;
+    }
+
+    /** Messages waiting for a sender thread. */
+    public static int getQueueDepth() {
+        return TelegramDispatcher.queueDepth();
+    }
+
+    /** Messages parked until their rate limit slot or retry is due. */
+    public static int getDeferred() {
+        return TelegramDispatcher.deferredCount();
+    }
+
+    static JSONObject toJSON() {
+        JSONObject counts = new JSONObject();
+        for (Map.Entry<Integer, Long> entry : getResponses().entrySet()) {
+            counts.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        JSONObject json = new JSONObject();
+        json.put("attempts", getAttempts());
+        json.put("successes", getSuccesses());
+        json.put("retries", getRetries());
+        json.put("giveUps", getGiveUps());
+        json.put("responses", counts);
+        json.put("queueDepth", getQueueDepth());
+        json.put("deferred", getDeferred());
+        json.put("sendLatencyMillis", sendLatency.toJSON());
+        json.put("deliveryLagMillis", deliveryLag.toJSON());
+        json.put("rateLimitWaitMillis", rateLimitWaits.toJSON());
+        json.put("renderTimeMicros", renderTime.toJSON());
+        json.put("messageSizeChars", messageSize.toJSON());
+        return json;
+    }
+
+    /**
+     * Lock-free histogram over fixed buckets. Percentiles are reported as the upper bound of the bucket
+     * they fall into, which is precise enough for alerting and costs no allocation per sample.
+     */
+    public static final class Histogram {
+        private final long[] bounds;
+        private final AtomicLongArray buckets;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        void record(long value) {
+            int bucket = Arrays.binarySearch(bounds, value);
+            buckets.incrementAndGet(bucket >= 0 ? bucket : -bucket - 1);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public double getMean() {
+            long n = count.get();
+            return n > 0 ? (double) sum.get() / n : 0;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param quantile between 0 and 1, e.g. {@code 0.95}
+         */
+        public long getPercentile(double quantile) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(bounds[i], getMax());
+                }
+            }
+            return getMax();
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("count", getCount());
+            json.put("mean", getMean());
+            json.put("max", getMax());
+            json.put("p50", getPercentile(0.5));
+            json.put("p95", getPercentile(0.95));
+            json.put("p99", getPercentile(0.99));
+            JSONObject histogram = new JSONObject();
+            for (int i = 0; i < bounds.length; i++) {
+                histogram.put("le" + bounds[i], buckets.get(i));
+            }
+            histogram.put("inf", buckets.get(bounds.length));
+            json.put("buckets", histogram);
+            return json;
+        }
+    }
+}
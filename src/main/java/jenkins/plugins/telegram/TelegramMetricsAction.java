@@ -0,0 +1,39 @@
+package jenkins.plugins.telegram;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+
+/**
+ * Serves {@link TelegramMetrics} as JSON at {@code /telegram-metrics/}, e.g. for alerting on
+ * notification lag when the Metrics plugin is not installed.
+ */
+@Extension
+public class TelegramMetricsAction implements RootAction {
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Telegram Metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "telegram-metrics";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.getWriter().print(TelegramMetrics.toJSON().toString(2));
+    }
+}
@@ -2,7 +2,6 @@ package jenkins.plugins.telegram;
 
 
 
-import hudson.EnvVars;
 import hudson.Extension;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
@@ -25,7 +24,12 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.export.Exported;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -53,11 +57,24 @@ public class TelegramNotifier extends Notifier {
     private boolean includeCustomMessage;
     private String customMessage;
 
+    /** Templates compiled from the settings, reused until the settings change. */
+    private transient volatile MessageTemplate authTokenTemplate;
+    private transient volatile MessageTemplate chatIdTemplate;
+    private transient volatile MessageTemplate customMessageTemplate;
+
     @Override
     public DescriptorImpl getDescriptor() {
         return (DescriptorImpl) super.getDescriptor();
     }
 
+    /**
+     * The global settings, {@code null} outside of a running Jenkins such as in the benchmarks.
+     */
+    static DescriptorImpl globalSettings() {
+        Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? jenkins.getDescriptorByType(DescriptorImpl.class) : null;
+    }
+
 
     public String getChatId() {
         return chatId;
@@ -162,9 +179,25 @@ public class TelegramNotifier extends Notifier {
         return BuildStepMonitor.NONE;
     }
 
+    /**
+     * @deprecated a notifier can have several destinations, use {@link #newTelegramServices}
+     */
+    @Deprecated
     public TelegramService newTelegramService(AbstractBuild r, BuildListener listener) {
+        Map<String, TelegramService> services = newTelegramServices(r, listener);
+        return services.isEmpty() ? new StandardTelegramService(getDescriptor().getToken(), "")
+                : services.values().iterator().next();
+    }
 
+    /**
+     * Creates a service per configured destination, keyed by destination. The chat ids may hold a list
+     * of {@code chat} or {@code chat:topic} entries.
+     */
+    public Map<String, TelegramService> newTelegramServices(AbstractBuild r, BuildListener listener) {
+        return newTelegramServices(new NotificationContext(r, listener));
+    }
 
+    Map<String, TelegramService> newTelegramServices(NotificationContext context) {
         String authToken = this.authToken;
         if (StringUtils.isEmpty(authToken)) {
             authToken = getDescriptor().getToken();
@@ -173,18 +206,24 @@ public class TelegramNotifier extends Notifier {
         if (StringUtils.isEmpty(chatId)) {
             chatId = getDescriptor().getChatId();
         }
-
-        EnvVars env = null;
-        try {
-            env = r.getEnvironment(listener);
-        } catch (Exception e) {
-            listener.getLogger().println("Error retrieving environment vars: " + e.getMessage());
-            env = new EnvVars();
+        MessageTemplate authTokenTemplate = this.authTokenTemplate = MessageTemplate.reuse(this.authTokenTemplate, authToken);
+        MessageTemplate chatIdTemplate = this.chatIdTemplate = MessageTemplate.reuse(this.chatIdTemplate, chatId);
+        authToken = context.expand(authTokenTemplate);
+        chatId = context.expand(chatIdTemplate);
+
+        Map<String, TelegramService> services = new LinkedHashMap<String, TelegramService>();
+        for (ChatDestination destination : ChatDestination.parseList(chatId)) {
+            services.put(destination.toString(), new StandardTelegramService(authToken, destination.toString()));
         }
-        authToken = env.expand(authToken);
-        chatId = env.expand(chatId);
+        return services;
+    }
 
-        return new StandardTelegramService(authToken, chatId);
+    MessageTemplate getCustomMessageTemplate() {
+        MessageTemplate template = customMessageTemplate;
+        if (template == null) {
+            template = customMessageTemplate = MessageTemplate.compile(customMessage);
+        }
+        return template;
     }
 
     @Override
@@ -195,13 +234,8 @@ public class TelegramNotifier extends Notifier {
     @Override
     public boolean prebuild(AbstractBuild<?, ?> build, BuildListener listener) {
         if (startNotification) {
-            Map<Descriptor<Publisher>, Publisher> map = build.getProject().getPublishersList().toMap();
-            for (Publisher publisher : map.values()) {
-                if (publisher instanceof TelegramNotifier) {
-                    logger.info("Invoking Started...");
-                    new ActiveNotifier((TelegramNotifier) publisher, listener).started(build);
-                }
-            }
+            // every Telegram notifier of the job gets its own prebuild call
+            new ActiveNotifier(this, listener).started(build);
         }
         return super.prebuild(build, listener);
     }
@@ -214,8 +248,30 @@ public class TelegramNotifier extends Notifier {
         private String chatId;
         private String buildServerUrl;
         private String sendAs;
+        private int queueCapacity;
+        private int senderThreads;
+        private OverflowPolicy overflowPolicy;
+        private int coalesceWindow;
+        private int coalesceMaxMessages;
+        private LongMessagePolicy longMessagePolicy;
+        private int failedTestsShown;
+        private FailedTestGrouping failedTestGrouping;
+        private boolean showNewFailures;
+        private boolean editStartMessage;
+        private List<RoutingRule> routingRules;
+        /** Compiled from the routing rules whenever they are saved or loaded. */
+        private transient volatile RoutingTable routingTable;
+        /** Message layouts, {@code null} for the default ones. */
+        private String startTemplate;
+        private String completedTemplate;
+        private transient volatile MessageTemplate startMessageTemplate;
+        private transient volatile MessageTemplate completedMessageTemplate;
 
         public static final CommitInfoChoice[] COMMIT_INFO_CHOICES = CommitInfoChoice.values();
+        public static final OverflowPolicy[] OVERFLOW_POLICIES = OverflowPolicy.values();
+        public static final LongMessagePolicy[] LONG_MESSAGE_POLICIES = LongMessagePolicy.values();
+        public static final FailedTestGrouping[] FAILED_TEST_GROUPINGS = FailedTestGrouping.values();
+        public static final int DEFAULT_FAILED_TESTS_SHOWN = 10;
 
         public DescriptorImpl() {
             load();
@@ -244,6 +300,99 @@ public class TelegramNotifier extends Notifier {
             return sendAs;
         }
 
+        public int getQueueCapacity() {
+            return queueCapacity > 0 ? queueCapacity : TelegramDispatcher.DEFAULT_QUEUE_CAPACITY;
+        }
+
+        public int getSenderThreads() {
+            return senderThreads > 0 ? senderThreads : TelegramDispatcher.DEFAULT_SENDER_THREADS;
+        }
+
+        public OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy != null ? overflowPolicy : OverflowPolicy.DROP_OLDEST;
+        }
+
+        /**
+         * Seconds to collect notices for the same chat before sending them as one digest, 0 to disable.
+         */
+        public int getCoalesceWindow() {
+            return coalesceWindow;
+        }
+
+        public int getCoalesceMaxMessages() {
+            return coalesceMaxMessages > 0 ? coalesceMaxMessages : MessageCoalescer.DEFAULT_MAX_BATCH;
+        }
+
+        /**
+         * What to do with messages longer than Telegram accepts.
+         */
+        public LongMessagePolicy getLongMessagePolicy() {
+            return longMessagePolicy != null ? longMessagePolicy : LongMessagePolicy.SPLIT;
+        }
+
+        /**
+         * How many failed tests, classes or packages a build notification lists at most.
+         */
+        public int getFailedTestsShown() {
+            return failedTestsShown > 0 ? failedTestsShown : DEFAULT_FAILED_TESTS_SHOWN;
+        }
+
+        public FailedTestGrouping getFailedTestGrouping() {
+            return failedTestGrouping != null ? failedTestGrouping : FailedTestGrouping.NONE;
+        }
+
+        /**
+         * Whether failed tests that passed in the previous build are listed separately.
+         */
+        public boolean getShowNewFailures() {
+            return showNewFailures;
+        }
+
+        /**
+         * Whether the build result replaces the start notice instead of being sent as a new message.
+         */
+        public boolean getEditStartMessage() {
+            return editStartMessage;
+        }
+
+        /**
+         * Global rules announcing matching builds in addition to the notifiers configured on the jobs.
+         */
+        public List<RoutingRule> getRoutingRules() {
+            return routingRules != null ? routingRules : Collections.<RoutingRule>emptyList();
+        }
+
+        /**
+         * Layout of the start notice, see {@link MessageTemplate} for the syntax.
+         */
+        public String getStartTemplate() {
+            return StringUtils.isEmpty(startTemplate) ? ActiveNotifier.DEFAULT_START_TEMPLATE : startTemplate;
+        }
+
+        /**
+         * Layout of the result notice, see {@link MessageTemplate} for the syntax.
+         */
+        public String getCompletedTemplate() {
+            return StringUtils.isEmpty(completedTemplate) ? ActiveNotifier.DEFAULT_COMPLETED_TEMPLATE : completedTemplate;
+        }
+
+        MessageTemplate getStartMessageTemplate() {
+            return startMessageTemplate = MessageTemplate.reuse(startMessageTemplate, getStartTemplate());
+        }
+
+        MessageTemplate getCompletedMessageTemplate() {
+            return completedMessageTemplate = MessageTemplate.reuse(completedMessageTemplate, getCompletedTemplate());
+        }
+
+        RoutingTable getRoutingTable() {
+            RoutingTable table = routingTable;
+            if (table == null) {
+                table = routingTable = getRoutingRules().isEmpty() ? RoutingTable.EMPTY
+                        : new RoutingTable(getRoutingRules());
+            }
+            return table;
+        }
+
         public boolean isApplicable(Class<? extends AbstractProject> aClass) {
             return true;
         }
@@ -283,10 +432,48 @@ public class TelegramNotifier extends Notifier {
             if (buildServerUrl != null && !buildServerUrl.endsWith("/")) {
                 buildServerUrl = buildServerUrl + "/";
             }
+            queueCapacity = parseInt(sr.getParameter("telegramQueueCapacity"), TelegramDispatcher.DEFAULT_QUEUE_CAPACITY);
+            senderThreads = parseInt(sr.getParameter("telegramSenderThreads"), TelegramDispatcher.DEFAULT_SENDER_THREADS);
+            overflowPolicy = OverflowPolicy.forDisplayName(sr.getParameter("telegramOverflowPolicy"));
+            TelegramDispatcher.reconfigure(getQueueCapacity(), getSenderThreads(), getOverflowPolicy());
+            coalesceWindow = parseInt(sr.getParameter("telegramCoalesceWindow"), 0);
+            coalesceMaxMessages = parseInt(sr.getParameter("telegramCoalesceMaxMessages"), MessageCoalescer.DEFAULT_MAX_BATCH);
+            MessageCoalescer.get().configure(TimeUnit.SECONDS.toMillis(coalesceWindow), getCoalesceMaxMessages());
+            longMessagePolicy = LongMessagePolicy.forDisplayName(sr.getParameter("telegramLongMessagePolicy"));
+            failedTestsShown = parseInt(sr.getParameter("telegramFailedTestsShown"), DEFAULT_FAILED_TESTS_SHOWN);
+            failedTestGrouping = FailedTestGrouping.forDisplayName(sr.getParameter("telegramFailedTestGrouping"));
+            showNewFailures = "true".equals(sr.getParameter("telegramShowNewFailures"));
+            editStartMessage = "true".equals(sr.getParameter("telegramEditStartMessage"));
+            JSONObject section = formData.optJSONObject("telegram");
+            routingRules = sr.bindJSONToList(RoutingRule.class,
+                    (section != null ? section : formData).opt("telegramRoutingRules"));
+            routingTable = routingRules.isEmpty() ? RoutingTable.EMPTY : new RoutingTable(routingRules);
+            startTemplate = parseTemplate(sr.getParameter("telegramStartTemplate"), ActiveNotifier.DEFAULT_START_TEMPLATE);
+            completedTemplate = parseTemplate(sr.getParameter("telegramCompletedTemplate"),
+                    ActiveNotifier.DEFAULT_COMPLETED_TEMPLATE);
+            startMessageTemplate = MessageTemplate.compile(getStartTemplate());
+            completedMessageTemplate = MessageTemplate.compile(getCompletedTemplate());
             save();
             return super.configure(sr, formData);
         }
 
+        private static int parseInt(String value, int defaultValue) {
+            try {
+                int parsed = Integer.parseInt(StringUtils.trim(value));
+                return parsed > 0 ? parsed : defaultValue;
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
+        /**
+         * The submitted layout, {@code null} if it is the default one so later defaults still apply.
+         */
+        private static String parseTemplate(String value, String defaultTemplate) {
+            String template = StringUtils.replace(value, "\r\n", "\n");
+            return StringUtils.isBlank(template) || template.equals(defaultTemplate) ? null : template;
+        }
+
         TelegramService getTelegramService(final String authToken, final String chatId) {
             return new StandardTelegramService(authToken, chatId);
         }
@@ -314,10 +501,23 @@ public class TelegramNotifier extends Notifier {
                 if (StringUtils.isEmpty(targetBuildServerUrl)) {
                     targetBuildServerUrl = this.buildServerUrl;
                 }
-                TelegramService testTelegramService = getTelegramService(targetToken, targetChatId);
+                List<ChatDestination> destinations = ChatDestination.parseList(targetChatId);
+                if (destinations.isEmpty()) {
+                    return FormValidation.error("Failure: no chat configured");
+                }
                 String message = "Telegram/Jenkins plugin: you're all set on " + targetBuildServerUrl;
-                boolean success = testTelegramService.publish(message, "good");
-                return success ? FormValidation.ok("Success") : FormValidation.error("Failure");
+                // each chat on its own, so the result tells which of them the bot cannot post to
+                List<String> failed = new ArrayList<String>();
+                for (ChatDestination destination : destinations) {
+                    TelegramService testTelegramService = getTelegramService(targetToken, destination.toString());
+                    if (!testTelegramService.publish(message, "good")) {
+                        failed.add(destination.toString());
+                    }
+                }
+                if (failed.isEmpty()) {
+                    return FormValidation.ok("Success");
+                }
+                return FormValidation.error("Failure for chat " + StringUtils.join(failed, ", "));
             } catch (Exception e) {
                 return FormValidation.error("Client error : " + e.getMessage());
             }
@@ -0,0 +1,106 @@
+package jenkins.plugins.telegram;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.AbstractProject;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.tasks.Publisher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the {@link TelegramNotifier}s configured on each job, so build events do not have
+ * to scan the publisher list every time. Jobs without publishers, such as pipelines, are configured
+ * through a {@link TelegramJobProperty}. Entries are dropped whenever a job configuration changes.
+ */
+public final class TelegramNotifierCache {
+
+    private static final Map<Job<?, ?>, List<TelegramNotifier>> notifiers =
+            Collections.synchronizedMap(new WeakHashMap<Job<?, ?>, List<TelegramNotifier>>());
+    /** Bumped on every invalidation, so a scan racing with a configuration change is not cached. */
+    private static final AtomicLong generation = new AtomicLong();
+
+    private TelegramNotifierCache() {
+    }
+
+    /**
+     * All Telegram notifiers of the job, in publisher order.
+     */
+    static List<TelegramNotifier> get(Job<?, ?> project) {
+        List<TelegramNotifier> cached = notifiers.get(project);
+        if (cached == null) {
+            long scannedAt = generation.get();
+            cached = scan(project);
+            synchronized (notifiers) {
+                if (generation.get() == scannedAt) {
+                    notifiers.put(project, cached);
+                }
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Forgets everything. Matrix configurations share their parent's publishers, so a single job
+     * change may affect several cached projects; configuration changes are rare enough to start over.
+     */
+    static void invalidate() {
+        synchronized (notifiers) {
+            generation.incrementAndGet();
+            notifiers.clear();
+        }
+    }
+
+    private static List<TelegramNotifier> scan(Job<?, ?> job) {
+        if (!(job instanceof AbstractProject)) {
+            TelegramJobProperty property = job.getProperty(TelegramJobProperty.class);
+            return property != null && property.getNotifier() != null
+                    ? Collections.singletonList(property.getNotifier()) : Collections.<TelegramNotifier>emptyList();
+        }
+        AbstractProject<?, ?> project = (AbstractProject<?, ?>) job;
+        List<TelegramNotifier> found = new ArrayList<TelegramNotifier>(1);
+        for (Publisher publisher : project.getPublishersList()) {
+            if (publisher instanceof TelegramNotifier) {
+                found.add((TelegramNotifier) publisher);
+            }
+        }
+        return found.isEmpty() ? Collections.<TelegramNotifier>emptyList() : Collections.unmodifiableList(found);
+    }
+
+    @Extension
+    public static final class JobConfigListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Item) {
+                invalidate();
+            }
+        }
+    }
+
+    @Extension
+    public static final class JobListener extends ItemListener {
+        @Override
+        public void onUpdated(Item item) {
+            invalidate();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            invalidate();
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            invalidate();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.httpclient.HttpStatus;
+
+import java.io.IOException;
+
+/**
+ * Outcome of a single call to the Telegram Bot API.
+ */
+public final class TelegramResponse {
+
+    /** Status code used when the request never got an HTTP response. */
+    public static final int NO_RESPONSE = 0;
+
+    private final int statusCode;
+    private final String description;
+    private final int errorCode;
+    private final int retryAfter;
+    private final long messageId;
+    private final IOException exception;
+
+    private TelegramResponse(int statusCode, String description, int errorCode, int retryAfter, long messageId,
+                             IOException exception) {
+        this.statusCode = statusCode;
+        this.description = description;
+        this.errorCode = errorCode;
+        this.retryAfter = retryAfter;
+        this.messageId = messageId;
+        this.exception = exception;
+    }
+
+    /**
+     * Reads the interesting parts of a Bot API response body such as
+     * {@code {"ok":false,"error_code":429,"description":"...","parameters":{"retry_after":5}}}
+     * or {@code {"ok":true,"result":{"message_id":42,...}}}.
+     */
+    static TelegramResponse parse(int statusCode, String body) {
+        String description = null;
+        int errorCode = 0;
+        int retryAfter = 0;
+        long messageId = 0;
+        if (body != null && body.startsWith("{")) {
+            try {
+                JSONObject json = JSONObject.fromObject(body);
+                description = json.optString("description", null);
+                errorCode = json.optInt("error_code", 0);
+                JSONObject parameters = json.optJSONObject("parameters");
+                if (parameters != null) {
+                    retryAfter = parameters.optInt("retry_after", 0);
+                }
+                JSONObject result = json.optJSONObject("result");
+                if (result != null) {
+                    messageId = result.optLong("message_id", 0);
+                }
+            } catch (JSONException e) {
+                description = body;
+            }
+        } else {
+            description = body;
+        }
+        return new TelegramResponse(statusCode, description, errorCode, retryAfter, messageId, null);
+    }
+
+    static TelegramResponse failed(IOException exception) {
+        return new TelegramResponse(NO_RESPONSE, exception.getMessage(), 0, 0, 0, exception);
+    }
+
+    /**
+     * The transport failed with something else than an I/O error; it is handled like one.
+     */
+    static TelegramResponse failed(Throwable failure) {
+        return failed(failure instanceof IOException ? (IOException) failure : new IOException(failure));
+    }
+
+    /**
+     * The message was never handed to Telegram, e.g. dropped from a full queue.
+     */
+    static TelegramResponse notSent(String reason) {
+        return new TelegramResponse(NO_RESPONSE, reason, 0, 0, 0, null);
+    }
+
+    /**
+     * Whether the message was accepted, for callers only interested in that.
+     */
+    static ListenableFuture<Boolean> delivered(ListenableFuture<TelegramResponse> response) {
+        return Futures.transform(response, IS_OK);
+    }
+
+    private static final Function<TelegramResponse, Boolean> IS_OK = new Function<TelegramResponse, Boolean>() {
+        @Override
+        public Boolean apply(TelegramResponse response) {
+            return response.isOk();
+        }
+    };
+
+    public boolean isOk() {
+        return statusCode == HttpStatus.SC_OK;
+    }
+
+    public boolean isRateLimited() {
+        return statusCode == 429;
+    }
+
+    /**
+     * Telegram rejects an edit that would not change the message, which is as good as done.
+     */
+    public boolean isNotModified() {
+        return statusCode == HttpStatus.SC_BAD_REQUEST && description != null
+                && description.contains("message is not modified");
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Telegram's {@code error_code}, the HTTP status if it gave none, {@code 0} on success.
+     */
+    public int getErrorCode() {
+        if (isOk()) {
+            return 0;
+        }
+        return errorCode != 0 ? errorCode : statusCode;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Seconds Telegram asked us to wait before sending to the chat again, {@code 0} if not given.
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Id of the sent or edited message within its chat, {@code 0} if unknown.
+     */
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public IOException getException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        return statusCode == NO_RESPONSE ? "no response (" + description + ")" : statusCode + " " + description;
+    }
+}
@@ -0,0 +1,25 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sends {@link TelegramMessage}s with one bot token and reports Telegram's answer for each.
+ * <p>
+ * Messages are queued and sent by the plugin's sender threads, the futures complete once Telegram
+ * accepted a message or it was given up on.
+ */
+public interface TelegramSender {
+
+    ListenableFuture<TelegramResponse> publish(TelegramMessage message);
+
+    /**
+     * Queues several messages at once, e.g. a notice for many chats. Messages to the same chat are
+     * sent in the given order.
+     *
+     * @return one future per message, in the same order
+     */
+    List<ListenableFuture<TelegramResponse>> publishAll(Collection<TelegramMessage> messages);
+}
@@ -1,8 +1,49 @@
 package jenkins.plugins.telegram;
 
 
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Sends plain HTML texts to the chat a service was created for. This is a thin layer over
+ * {@link TelegramSender}, use that to set the parse mode, silent delivery, reply markup or topic.
+ */
 public interface TelegramService {
     boolean publish(String message);
 
+    /**
+     * @deprecated the color is ignored, use {@link #publish(String)}
+     */
+    @Deprecated
     boolean publish(String message, String color);
+
+    /**
+     * Queues the message for delivery and returns without waiting for the Telegram API.
+     *
+     * @return a future completed with {@code true} once Telegram accepted the message
+     */
+    ListenableFuture<Boolean> enqueue(String message);
+
+    /**
+     * Queues the message like {@link #enqueue(String)} and returns Telegram's answer, which holds the
+     * id of the sent message.
+     */
+    ListenableFuture<TelegramResponse> post(String message);
+
+    /**
+     * Queues a new text for a message sent before by {@link #post}. If it cannot be edited any more,
+     * the text is sent as a new message.
+     */
+    ListenableFuture<TelegramResponse> edit(long messageId, String message);
+
+    /**
+     * Queues the message like {@link #post(String)}. The returned delivery also identifies the message
+     * after a restart, so a caller that outlives it can still learn whether it was sent.
+     */
+    TelegramDelivery queue(String message);
+
+    /**
+     * Queues the completion notice of a build. Notices for the same chat may be merged into a
+     * digest when many builds finish at once.
+     */
+    ListenableFuture<Boolean> enqueue(BuildSummary build);
 }
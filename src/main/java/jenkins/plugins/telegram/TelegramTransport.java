@@ -0,0 +1,19 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Map;
+
+/**
+ * Carries a single Bot API request to Telegram.
+ * <p>
+ * Implementations must not block the caller for the round trip and must always complete the future
+ * with a response, using {@link TelegramResponse#failed} when there was no answer.
+ */
+public interface TelegramTransport {
+
+    /**
+     * Posts the form parameters to the URL.
+     */
+    ListenableFuture<TelegramResponse> post(String url, Map<String, String> parameters);
+}
@@ -1,19 +1,29 @@
 package jenkins.plugins.telegram.workflow;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 
 import hudson.AbortException;
 import hudson.Extension;
 
+import hudson.model.Run;
 import hudson.model.TaskListener;
 import jenkins.model.Jenkins;
+import jenkins.plugins.telegram.MessageValues;
 import jenkins.plugins.telegram.Messages;
 import jenkins.plugins.telegram.StandardTelegramService;
+import jenkins.plugins.telegram.TelegramDelivery;
+import jenkins.plugins.telegram.TelegramDispatcher;
 import jenkins.plugins.telegram.TelegramNotifier;
+import jenkins.plugins.telegram.TelegramResponse;
 import jenkins.plugins.telegram.TelegramService;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
-import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
 
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -32,6 +42,8 @@ public class TelegramSendStep extends AbstractStepImpl {
     private String chatId;
     private boolean failOnError;
     private String token;
+    private boolean wait = true;
+    private boolean template;
 
     @DataBoundConstructor
     public TelegramSendStep(@Nonnull String message) {
@@ -70,6 +82,32 @@ public class TelegramSendStep extends AbstractStepImpl {
         this.token = token;
     }
 
+    public boolean getWait() {
+        return wait;
+    }
+
+    /**
+     * With {@code wait: false} the step returns as soon as the message is queued. It cannot fail on a later
+     * delivery error then, so it may not be combined with {@code failOnError}.
+     */
+    @DataBoundSetter
+    public void setWait(boolean wait) {
+        this.wait = wait;
+    }
+
+    public boolean getTemplate() {
+        return template;
+    }
+
+    /**
+     * With {@code template: true} placeholders such as {@code ${status}} or {@code ${tests}} are expanded
+     * like in the notification templates; otherwise the message is sent as written.
+     */
+    @DataBoundSetter
+    public void setTemplate(boolean template) {
+        this.template = template;
+    }
+
     @Extension
     public static class DescriptorImpl extends AbstractStepDescriptorImpl {
         public DescriptorImpl() {
@@ -88,7 +126,12 @@ public class TelegramSendStep extends AbstractStepImpl {
         }
     }
 
-    public static class TelegramSendStepExecution extends AbstractSynchronousNonBlockingStepExecution<Boolean> {
+    /**
+     * Queues the message with the plugin's sender and completes the step from the delivery callback,
+     * so no thread waits for the Telegram API while the message is on its way. The message's outbox
+     * ids are kept with the step, so a step resumed after a restart completes from the same delivery.
+     */
+    public static class TelegramSendStepExecution extends AbstractStepExecutionImpl {
         private static final long serialVersionUID = 1L;
 
         @Inject
@@ -97,34 +140,154 @@ public class TelegramSendStep extends AbstractStepImpl {
         @StepContextParameter
         transient TaskListener listener;
 
+        @StepContextParameter
+        transient Run<?, ?> run;
+
+        private transient String chatId;
+        private transient String token;
+        /** Kept across a restart, like the outbox ids the step completes from then. */
+        private boolean failOnError;
+        private volatile long[] outboxIds;
+
         @Override
-        protected Boolean run() throws Exception {
+        public boolean start() throws Exception {
             Jenkins jenkins;
-            if(listener == null) return false;
+            if(listener == null) {
+                getContext().onSuccess(false);
+                return true;
+            }
 
             try {
                 jenkins= Jenkins.getInstance();
                 if(jenkins == null) throw new NullPointerException("Jenkins instance is null");
             } catch (NullPointerException npe) {
                 listener.error(Messages.NotificationFailedWithException(npe));
-               return false;
+                getContext().onSuccess(false);
+                return true;
             }
             TelegramNotifier.DescriptorImpl telegramDesc = jenkins.getDescriptorByType(TelegramNotifier.DescriptorImpl.class);
+            if (!step.wait && step.failOnError) {
+                throw new AbortException(Messages.TelegramSendStepFailOnErrorWithoutWait());
+            }
 
-            String chatId = step.chatId != null ? step.chatId : telegramDesc.getChatId();
-            String token = step.token != null ? step.token : telegramDesc.getToken();
+            // expanded off the CPS thread, it may read the environment, the build history and test results
+            ListenableFuture<String> message = step.template
+                    ? MessageValues.renderLater(step.getMessage(), run, listener)
+                    : Futures.immediateFuture(step.getMessage());
+            chatId = step.chatId != null ? step.chatId : telegramDesc.getChatId();
+            token = step.token != null ? step.token : telegramDesc.getToken();
+            failOnError = step.failOnError;
 
             listener.getLogger().println(Messages.TelegramSendStepConfig(chatId == null, token == null));
-            TelegramService telegramService = getTelegramService(token, chatId);
-
-            boolean publishSuccess = telegramService.publish(step.message);
-            if (!publishSuccess && step.failOnError) {
-                throw new AbortException(Messages.NotificationFailed());
-            } else if (!publishSuccess) {
-                listener.error(Messages.NotificationFailed());
-                return false;
+            if (!step.wait) {
+                send(message, false);
+                getContext().onSuccess(true);
+                return true;
+            }
+            send(message, true);
+            return false;
+        }
+
+        /**
+         * Queues the message once it is rendered; the step is completed once Telegram answered if
+         * {@code complete} is set.
+         */
+        private void send(ListenableFuture<String> message, boolean complete) {
+            final TelegramService telegramService = getTelegramService(token, chatId);
+            ListenableFuture<TelegramDelivery> queued = Futures.transform(message, new Function<String, TelegramDelivery>() {
+                @Override
+                public TelegramDelivery apply(String text) {
+                    TelegramDelivery delivery = telegramService.queue(text);
+                    outboxIds = delivery.getOutboxIds();
+                    return delivery;
+                }
+            });
+            completeFrom(Futures.transform(queued, DELIVERED), complete);
+        }
+
+        private static final AsyncFunction<TelegramDelivery, Boolean> DELIVERED = new AsyncFunction<TelegramDelivery, Boolean>() {
+            @Override
+            public ListenableFuture<Boolean> apply(TelegramDelivery delivery) {
+                return Futures.transform(delivery.getResponse(), IS_OK);
+            }
+        };
+
+        private static final Function<TelegramResponse, Boolean> IS_OK = new Function<TelegramResponse, Boolean>() {
+            @Override
+            public Boolean apply(TelegramResponse response) {
+                return response.isOk();
+            }
+        };
+
+        /**
+         * Reports the delivery, completing the step if {@code complete} is set.
+         */
+        private void completeFrom(ListenableFuture<Boolean> delivered, final boolean complete) {
+            Futures.addCallback(delivered, new FutureCallback<Boolean>() {
+                @Override
+                public void onSuccess(Boolean delivered) {
+                    if (Boolean.TRUE.equals(delivered)) {
+                        if (complete) {
+                            getContext().onSuccess(true);
+                        }
+                    } else {
+                        failed(complete);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed(complete);
+                }
+            });
+        }
+
+        /**
+         * Reports a failed delivery. A step that did not wait has already returned, the failure is only
+         * logged to the build if it is still running.
+         */
+        private void failed(boolean complete) {
+            if (complete && failOnError) {
+                getContext().onFailure(new AbortException(Messages.NotificationFailed()));
+                return;
+            }
+            try {
+                getContext().get(TaskListener.class).error(Messages.NotificationFailed());
+            } catch (Exception e) {
+                // the log is gone, the result still tells
+            }
+            if (complete) {
+                getContext().onSuccess(false);
+            }
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            getContext().onFailure(cause);
+        }
+
+        /**
+         * The delivery callback did not survive the restart, but the outbox did: a message still pending
+         * was sent again from it and one sent before has its outcome journaled. The step completes from
+         * that like it would have before the restart. Only if the outbox does not know the message, e.g.
+         * because the restart came before it was queued, the step returns {@code false} without
+         * claiming anything.
+         */
+        @Override
+        public void onResume() {
+            super.onResume();
+            long[] ids = outboxIds;
+            ListenableFuture<Boolean> delivered = ids != null ? TelegramDispatcher.resume(ids) : null;
+            if (delivered != null) {
+                completeFrom(delivered, true);
+                return;
+            }
+            try {
+                getContext().get(TaskListener.class).error(Messages.TelegramSendStepResumed());
+            } catch (Exception e) {
+                // nothing to report to
             }
-            return true;
+            getContext().onSuccess(false);
         }
 
         //streamline unit testing
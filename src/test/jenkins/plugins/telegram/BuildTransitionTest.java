@@ -0,0 +1,124 @@
+package jenkins.plugins.telegram;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockBuilder;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BuildTransitionTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void runningBuildIsStarting() {
+        assertEquals(MessageStatus.STARTING, new BuildTransition(null, null, null, true).getStatus());
+    }
+
+    @Test
+    public void repeatedFailureIsStillFailing() {
+        BuildTransition transition = new BuildTransition(Result.FAILURE, Result.FAILURE, null, false);
+        assertEquals(MessageStatus.STILL_FAILING, transition.getStatus());
+        assertFalse(transition.isRecovery());
+    }
+
+    @Test
+    public void recoveryWithoutEarlierSuccessIsPlainSuccess() {
+        BuildTransition transition = new BuildTransition(Result.SUCCESS, Result.UNSTABLE, null, false);
+        assertTrue(transition.isRecovery());
+        assertEquals(MessageStatus.SUCCESS, transition.getStatus());
+    }
+
+    @Test
+    public void otherResultsMapToTheirStatus() {
+        assertEquals(MessageStatus.FAILURE, new BuildTransition(Result.FAILURE, Result.SUCCESS, null, false).getStatus());
+        assertEquals(MessageStatus.ABORTED, new BuildTransition(Result.ABORTED, Result.SUCCESS, null, false).getStatus());
+        assertEquals(MessageStatus.UNSTABLE, new BuildTransition(Result.UNSTABLE, Result.SUCCESS, null, false).getStatus());
+        assertEquals(MessageStatus.NOT_BUILT, new BuildTransition(Result.NOT_BUILT, Result.SUCCESS, null, false).getStatus());
+        assertEquals(MessageStatus.UNKNOWN, new BuildTransition(null, Result.SUCCESS, null, false).getStatus());
+    }
+
+    @Test
+    public void abortedBuildsAreSkipped() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        FreeStyleBuild success = build(project, Result.SUCCESS);
+        build(project, Result.FAILURE);
+        build(project, Result.ABORTED);
+
+        BuildTransition transition = BuildTransition.of(build(project, Result.SUCCESS));
+
+        assertEquals(Result.FAILURE, transition.getPreviousResult());
+        assertSame(success, transition.getPreviousSuccessfulBuild());
+        assertEquals(MessageStatus.BACK_TO_NORMAL, transition.getStatus());
+    }
+
+    @Test
+    public void onlyAbortedBuildsBeforeCountAsSuccess() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        build(project, Result.ABORTED);
+        build(project, Result.ABORTED);
+
+        BuildTransition transition = BuildTransition.of(build(project, Result.FAILURE));
+
+        assertEquals(Result.SUCCESS, transition.getPreviousResult());
+        assertEquals(MessageStatus.FAILURE, transition.getStatus());
+    }
+
+    @Test
+    public void notBuiltBuildsAreNotSkipped() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        build(project, Result.FAILURE);
+        build(project, Result.NOT_BUILT);
+
+        BuildTransition transition = BuildTransition.of(build(project, Result.FAILURE));
+
+        assertEquals(Result.NOT_BUILT, transition.getPreviousResult());
+        assertEquals(MessageStatus.FAILURE, transition.getStatus());
+    }
+
+    @Test
+    public void walkStopsAtTheFirstCompletedBuild() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        build(project, Result.SUCCESS);
+        build(project, Result.FAILURE);
+
+        BuildTransition transition = BuildTransition.of(build(project, Result.FAILURE));
+
+        assertEquals(Result.FAILURE, transition.getPreviousResult());
+        // no recovery, so the earlier success is not looked for
+        assertNull(transition.getPreviousSuccessfulBuild());
+        assertEquals(MessageStatus.STILL_FAILING, transition.getStatus());
+    }
+
+    @Test
+    public void walkIsBoundedInDepth() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        build(project, Result.FAILURE);
+        for (int i = 0; i < BuildTransition.MAX_HISTORY_DEPTH; i++) {
+            build(project, Result.ABORTED);
+        }
+
+        BuildTransition transition = BuildTransition.of(build(project, Result.SUCCESS));
+
+        // the failure lies beyond the walk depth
+        assertEquals(Result.SUCCESS, transition.getPreviousResult());
+        assertFalse(transition.isRecovery());
+        assertEquals(MessageStatus.SUCCESS, transition.getStatus());
+    }
+
+    private FreeStyleBuild build(FreeStyleProject project, Result result) throws Exception {
+        project.getBuildersList().replaceBy(Collections.singleton(new MockBuilder(result)));
+        return j.assertBuildStatus(result, project.scheduleBuild2(0).get());
+    }
+}
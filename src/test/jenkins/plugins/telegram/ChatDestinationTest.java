@@ -0,0 +1,41 @@
+package jenkins.plugins.telegram;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ChatDestinationTest {
+
+    @Test
+    public void topicIsSplitOff() {
+        ChatDestination destination = ChatDestination.parse("-1001234567890:42");
+        assertEquals("-1001234567890", destination.getChatId());
+        assertEquals("42", destination.getTopic());
+        assertEquals("-1001234567890:42", destination.toString());
+    }
+
+    @Test
+    public void chatWithoutTopic() {
+        ChatDestination destination = ChatDestination.parse(" @builds ");
+        assertEquals("@builds", destination.getChatId());
+        assertNull(destination.getTopic());
+    }
+
+    @Test
+    public void listIsSplitAndDeduplicated() {
+        List<ChatDestination> destinations = ChatDestination.parseList("-100:1, @builds;-100:1\n12345");
+        assertEquals(3, destinations.size());
+        assertEquals("-100:1", destinations.get(0).toString());
+        assertEquals("@builds", destinations.get(1).toString());
+        assertEquals("12345", destinations.get(2).toString());
+    }
+
+    @Test
+    public void emptyListHasNoDestinations() {
+        assertEquals(0, ChatDestination.parseList(null).size());
+        assertEquals(0, ChatDestination.parseList(" , ").size());
+    }
+}
@@ -0,0 +1,57 @@
+package jenkins.plugins.telegram;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CommitListCacheTest {
+
+    private static final CommitList COMMITS = new CommitList(Arrays.asList("[alice]\nfix", "[bob]\nbump"), 0);
+
+    @Test
+    public void entriesAreKeyedByProjectBuildAndChoice() {
+        CommitListCache cache = new CommitListCache(10, 60000);
+        cache.put(new CommitListCache.Key("upstream", 7, CommitInfoChoice.AUTHORS), COMMITS);
+
+        assertSame(COMMITS, cache.get(new CommitListCache.Key("upstream", 7, CommitInfoChoice.AUTHORS)));
+        assertNull(cache.get(new CommitListCache.Key("upstream", 7, CommitInfoChoice.AUTHORS_AND_TITLES)));
+        assertNull(cache.get(new CommitListCache.Key("upstream", 8, CommitInfoChoice.AUTHORS)));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        CommitListCache cache = new CommitListCache(2, 60000);
+        CommitListCache.Key first = new CommitListCache.Key("a", 1, CommitInfoChoice.AUTHORS);
+        CommitListCache.Key second = new CommitListCache.Key("b", 1, CommitInfoChoice.AUTHORS);
+        CommitListCache.Key third = new CommitListCache.Key("c", 1, CommitInfoChoice.AUTHORS);
+        cache.put(first, COMMITS);
+        cache.put(second, COMMITS);
+        cache.get(first);
+        cache.put(third, COMMITS);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(second));
+        assertSame(COMMITS, cache.get(first));
+    }
+
+    @Test
+    public void expiredEntriesAreDropped() {
+        CommitListCache cache = new CommitListCache(10, -1);
+        CommitListCache.Key key = new CommitListCache.Key("upstream", 7, CommitInfoChoice.AUTHORS);
+        cache.put(key, COMMITS);
+
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void cachedListIsRenderedForASmallerBudget() {
+        assertEquals("\n- [alice]\nfix\n- [bob]\nbump", COMMITS.render(4096));
+        assertEquals("\n- [alice]\nfix\n...and 1 more", COMMITS.render(50));
+        assertEquals("No Changes.", CommitList.NONE.render(4096));
+    }
+}
@@ -0,0 +1,162 @@
+package jenkins.plugins.telegram;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.JUnitResultArchiver;
+import hudson.tasks.junit.TestResultAction;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FailedTestSummaryTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private FreeStyleProject project;
+
+    @Before
+    public void setUp() throws Exception {
+        project = j.createFreeStyleProject();
+        project.getPublishersList().add(new JUnitResultArchiver("report.xml"));
+    }
+
+    @Test
+    public void keepsTheLargestGroupsMostFailuresFirst() {
+        List<FailedTestSummary.Entry> groups = new ArrayList<FailedTestSummary.Entry>();
+        for (int i = 0; i < 1000; i++) {
+            groups.add(new FailedTestSummary.Entry("com.example.Test" + i, i % 7 == 0 ? 3 : 1));
+        }
+        groups.add(new FailedTestSummary.Entry("com.example.Outage", 500));
+
+        List<FailedTestSummary.Entry> top = FailedTestSummary.top(groups, 3);
+
+        assertEquals(3, top.size());
+        assertEquals("com.example.Outage", top.get(0).getName());
+        assertEquals(3, top.get(1).getCount());
+        assertEquals("com.example.Test0", top.get(1).getName());
+        assertEquals("com.example.Test105", top.get(2).getName());
+    }
+
+    @Test
+    public void groupsFailuresByClass() throws Exception {
+        List<CaseResult> failed = failedTests(failure("com.example.a.FooTest", "one"),
+                failure("com.example.b.BazTest", "one"), failure("com.example.a.FooTest", "two"),
+                failure("com.example.a.BarTest", "one"), failure("com.example.b.BazTest", "two"),
+                failure("com.example.a.FooTest", "three"));
+
+        FailedTestSummary summary = FailedTestSummary.of(failed, FailedTestGrouping.CLASS, 2);
+
+        assertEquals(3, summary.getTotal());
+        assertEquals(1, summary.getOmitted());
+        assertEntry("com.example.a.FooTest", 3, summary.getEntries().get(0));
+        assertEntry("com.example.b.BazTest", 2, summary.getEntries().get(1));
+    }
+
+    @Test
+    public void groupsFailuresByPackage() throws Exception {
+        List<CaseResult> failed = failedTests(failure("com.example.a.FooTest", "one"),
+                failure("com.example.a.BarTest", "one"), failure("RootTest", "one"),
+                failure("com.example.a.FooTest", "two"));
+
+        FailedTestSummary summary = FailedTestSummary.of(failed, FailedTestGrouping.PACKAGE, 5);
+
+        assertEquals(2, summary.getTotal());
+        assertEquals(0, summary.getOmitted());
+        assertEntry("com.example.a", 3, summary.getEntries().get(0));
+        assertEntry("(root)", 1, summary.getEntries().get(1));
+    }
+
+    @Test
+    public void ungroupedFailuresAreCutAtTheLimit() throws Exception {
+        List<CaseResult> failed = failedTests(failure("com.example.a.FooTest", "one"),
+                failure("com.example.a.FooTest", "two"), failure("com.example.a.BarTest", "one"));
+
+        FailedTestSummary summary = FailedTestSummary.of(failed, FailedTestGrouping.NONE, 2);
+
+        assertEquals(3, summary.getTotal());
+        assertEquals(1, summary.getOmitted());
+        Set<String> names = new HashSet<String>(Arrays.asList("com.example.a.FooTest.one",
+                "com.example.a.FooTest.two", "com.example.a.BarTest.one"));
+        for (FailedTestSummary.Entry entry : summary.getEntries()) {
+            assertTrue(entry.getName(), names.contains(entry.getName()));
+            assertEquals(1, entry.getCount());
+        }
+    }
+
+    @Test
+    public void newFailuresLeaveOutTestsThatFailedBefore() throws Exception {
+        failedTests(success("com.example.PassedTest", "before"), failure("com.example.FailedTest", "before"));
+        List<CaseResult> failed = failedTests(failure("com.example.PassedTest", "before"),
+                failure("com.example.FailedTest", "before"), failure("com.example.NewTest", "added"));
+
+        FailedTestSummary summary = FailedTestSummary.newFailures(failed, 5);
+
+        assertEquals(2, summary.getTotal());
+        Set<String> names = new HashSet<String>();
+        for (FailedTestSummary.Entry entry : summary.getEntries()) {
+            names.add(entry.getName());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("com.example.PassedTest.before", "com.example.NewTest.added")),
+                names);
+
+        assertTrue(summary.isTotalExact());
+
+        summary = FailedTestSummary.newFailures(failed, 1);
+        assertEquals(2, summary.getTotal());
+        assertEquals(1, summary.getOmitted());
+        assertFalse(summary.isTotalExact());
+    }
+
+    private static void assertEntry(String name, int count, FailedTestSummary.Entry entry) {
+        assertEquals(name, entry.getName());
+        assertEquals(count, entry.getCount());
+    }
+
+    private static String failure(String className, String name) {
+        return "<testcase classname=\"" + className + "\" name=\"" + name + "\"><failure message=\"broken\">broken</failure></testcase>";
+    }
+
+    private static String success(String className, String name) {
+        return "<testcase classname=\"" + className + "\" name=\"" + name + "\"/>";
+    }
+
+    /**
+     * Runs a build reporting the given test cases and returns the failed ones.
+     */
+    private List<CaseResult> failedTests(String... testCases) throws Exception {
+        StringBuilder report = new StringBuilder("<testsuite name=\"suite\">");
+        for (String testCase : testCases) {
+            report.append(testCase);
+        }
+        final String xml = report.append("</testsuite>").toString();
+        project.getBuildersList().replaceBy(Collections.singleton(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                build.getWorkspace().child("report.xml").write(xml, "UTF-8");
+                return true;
+            }
+        }));
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+        return build.getAction(TestResultAction.class).getFailedTests();
+    }
+}
@@ -0,0 +1,44 @@
+package jenkins.plugins.telegram;
+
+import jenkins.plugins.telegram.ActiveNotifier.MessageBuilder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MessageBuilderTest {
+
+    @Test
+    public void escapeReturnsTheSameStringWhenNothingIsReserved() {
+        String plain = "feature/login - #42";
+        assertSame(plain, MessageBuilder.escape(plain));
+    }
+
+    @Test
+    public void escapeReplacesReservedCharacters() {
+        assertEquals("a &lt;b&gt; &amp;&amp; c", MessageBuilder.escape("a <b> && c"));
+        assertEquals("&lt;", MessageBuilder.escape("<"));
+        assertEquals("say &quot;hi&quot;", MessageBuilder.escape("say \"hi\""));
+    }
+
+    @Test
+    public void escapeAppendsToTheBuilder() {
+        StringBuilder out = new StringBuilder("x=");
+        MessageBuilder.escape(out, "1 < 2");
+        assertEquals("x=1 &lt; 2", out.toString());
+    }
+
+    @Test
+    public void longTestNamesKeepTheirTrailingSegments() {
+        String name = "com.example.some.deeply.nested.pkg.SomeRatherLongTestClassName.testSomething";
+        assertEquals("deeply.nested.pkg.SomeRatherLongTestClassName.testSomething",
+                MessageBuilder.shortenTestName(name));
+        assertEquals("short.Test.name", MessageBuilder.shortenTestName("short.Test.name"));
+    }
+
+    @Test
+    public void overlongLastSegmentIsKeptWhole() {
+        String segment = "testWithAnExtremelyLongNameThatDoesNotFitIntoTheSixtyCharacterBudget";
+        assertEquals(segment, MessageBuilder.shortenTestName("com.example." + segment));
+    }
+}
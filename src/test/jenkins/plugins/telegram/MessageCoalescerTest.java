@@ -0,0 +1,49 @@
+package jenkins.plugins.telegram;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+public class MessageCoalescerTest {
+
+    @Test
+    public void digestCountsResultsAndLinksEveryBuild() {
+        List<BuildSummary> summaries = new ArrayList<BuildSummary>();
+        summaries.add(new BuildSummary("✅", "lib-a - #1", "http://jenkins/job/lib-a/1/", "a"));
+        summaries.add(new BuildSummary("❗", "lib-b - #7", "http://jenkins/job/lib-b/7/", "b"));
+        summaries.add(new BuildSummary("✅", "lib-c - #3", "http://jenkins/job/lib-c/3/", "c"));
+
+        String digest = MessageCoalescer.digest(summaries);
+
+        assertTrue(digest.startsWith("<b>3 builds finished:</b> 2 ✅ 1 ❗\n"));
+        assertTrue(digest.contains("❗ <a href=\"http://jenkins/job/lib-b/7/\">lib-b - #7</a>"));
+    }
+
+    @Test
+    public void digestEscapesTitlesAndLinks() {
+        List<BuildSummary> summaries = new ArrayList<BuildSummary>();
+        summaries.add(new BuildSummary("✅", "a<b> - #1", "http://jenkins/job/a\"b/1/?x=1&y=2", "a"));
+        summaries.add(new BuildSummary("✅", "lib-c - #3", "http://jenkins/job/lib-c/3/", "c"));
+
+        String digest = MessageCoalescer.digest(summaries);
+
+        assertTrue(digest.contains("<a href=\"http://jenkins/job/a&quot;b/1/?x=1&amp;y=2\">a&lt;b&gt; - #1</a>"));
+    }
+
+    @Test
+    public void digestStaysWithinTheTelegramLimit() {
+        List<BuildSummary> summaries = new ArrayList<BuildSummary>();
+        for (int i = 0; i < 500; i++) {
+            summaries.add(new BuildSummary("✅", "downstream-job-" + i + " - #1",
+                    "http://jenkins/job/downstream-job-" + i + "/1/", "message"));
+        }
+
+        String digest = MessageCoalescer.digest(summaries);
+
+        assertTrue(digest.length() <= MessageCoalescer.MAX_MESSAGE_LENGTH);
+        assertTrue(digest.matches("(?s).*\\.\\.\\.and \\d+ more$"));
+    }
+}
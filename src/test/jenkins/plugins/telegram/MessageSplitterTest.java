@@ -0,0 +1,81 @@
+package jenkins.plugins.telegram;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSplitterTest {
+
+    @Test
+    public void shortMessageIsLeftAlone() {
+        String message = "<b>job - #1</b> Success";
+
+        List<String> parts = MessageSplitter.partsOf(message, LongMessagePolicy.SPLIT);
+
+        assertEquals(1, parts.size());
+        assertSame(message, parts.get(0));
+    }
+
+    @Test
+    public void splitsAfterLineBreaksAndKeepsEveryCharacter() {
+        List<String> parts = new MessageSplitter(15).split("first line\nsecond line\nthird");
+
+        assertEquals(3, parts.size());
+        assertEquals("first line\n", parts.get(0));
+        assertEquals("second line\n", parts.get(1));
+        assertEquals("third", parts.get(2));
+    }
+
+    @Test
+    public void closesAndReopensTagsAcrossParts() {
+        List<String> parts = new MessageSplitter(30).split("<b>bold words that go on and on</b> end");
+
+        assertEquals("<b>bold words that go on </b>", parts.get(0));
+        assertTrue(parts.get(1).startsWith("<b>and on</b>"));
+        for (String part : parts) {
+            assertTrue(part.length() <= 30);
+        }
+    }
+
+    @Test
+    public void neverCutsInsideEntities() {
+        List<String> parts = new MessageSplitter(10).split("aaaaaaa&amp;bbb");
+
+        assertEquals("aaaaaaa", parts.get(0));
+        assertEquals("&amp;bbb", parts.get(1));
+    }
+
+    @Test
+    public void truncateKeepsOnePartWithANote() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            message.append("line ").append(i).append('\n');
+        }
+
+        List<String> parts = MessageSplitter.partsOf(message.toString(), LongMessagePolicy.TRUNCATE);
+
+        assertEquals(1, parts.size());
+        assertTrue(parts.get(0).length() <= MessageSplitter.MAX_MESSAGE_LENGTH);
+        assertTrue(parts.get(0).matches("(?s)line 0\n.*\n<i>\\.\\.\\. \\d+ more characters not shown</i>$"));
+    }
+
+    @Test
+    public void splitStopsAtTheMaximumNumberOfParts() {
+        StringBuilder message = new StringBuilder();
+        while (message.length() < MessageSplitter.MAX_MESSAGE_LENGTH * (MessageSplitter.MAX_PARTS + 2)) {
+            message.append("<i>word</i> ");
+        }
+
+        List<String> parts = MessageSplitter.partsOf(message.toString(), LongMessagePolicy.SPLIT);
+
+        assertEquals(MessageSplitter.MAX_PARTS, parts.size());
+        for (String part : parts) {
+            assertTrue(part.length() <= MessageSplitter.MAX_MESSAGE_LENGTH);
+        }
+        assertTrue(parts.get(parts.size() - 1).endsWith("more characters not shown</i>"));
+    }
+}
@@ -0,0 +1,120 @@
+package jenkins.plugins.telegram;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageTemplateTest {
+
+    private final Map<String, String> env = new HashMap<String, String>();
+
+    {
+        env.put("JOB_NAME", "payments");
+        env.put("BUILD_NUMBER", "42");
+        env.put("git.branch", "main");
+    }
+
+    @Test
+    public void bothReferenceFormsAreExpanded() {
+        MessageTemplate template = MessageTemplate.compile("$JOB_NAME #${BUILD_NUMBER} on ${git.branch}");
+        assertEquals("payments #42 on main", template.expand(env));
+    }
+
+    @Test
+    public void unknownVariablesAreLeftIntact() {
+        assertEquals("$MISSING and ${ALSO_MISSING}",
+                MessageTemplate.compile("$MISSING and ${ALSO_MISSING}").expand(env));
+    }
+
+    @Test
+    public void textWithoutReferencesIsConstant() {
+        MessageTemplate template = MessageTemplate.compile("costs 5$ {braces} ${} $");
+        assertTrue(template.isConstant());
+        assertSame(template.getSource(), template.expand(env));
+    }
+
+    @Test
+    public void templatesAreReusedForTheSameSource() {
+        MessageTemplate template = MessageTemplate.compile("$JOB_NAME");
+        assertFalse(template.isConstant());
+        assertSame(template, MessageTemplate.reuse(template, "$JOB_NAME"));
+        assertEquals("42", MessageTemplate.reuse(template, "$BUILD_NUMBER").expand(env));
+    }
+
+    @Test
+    public void conditionalsPickABranchByValue() {
+        env.put("EMPTY", "");
+        MessageTemplate template = MessageTemplate.compile(
+                "${if JOB_NAME}[$JOB_NAME${if !EMPTY} no tests${end}]${else}none${end}${if MISSING}!${else}.${end}");
+        assertFalse(template.isConstant());
+        assertEquals("[payments no tests].", template.expand(env));
+    }
+
+    @Test
+    public void unclosedConditionalsEndWithTheText() {
+        assertEquals("open payments", MessageTemplate.compile("${if JOB_NAME}open $JOB_NAME").expand(env));
+        assertEquals("${if not a name}x", MessageTemplate.compile("${if not a name}x").expand(env));
+    }
+
+    @Test
+    public void elseAndEndOutsideOfAConditionalAreVariables() {
+        env.put("end", "fin");
+        assertEquals("fin ${else}", MessageTemplate.compile("${end} ${else}").expand(env));
+    }
+
+    @Test
+    public void defaultLayoutsRenderEverySection() {
+        Map<String, String> sections = new HashMap<String, String>();
+        sections.put("emoticon", "E");
+        sections.put("job", "payments");
+        sections.put("build", "#42");
+        sections.put("status", "Failure");
+        sections.put("duration", "3 min");
+        sections.put("url", "http://ci/job/payments/42/");
+        sections.put("tests", "<b>Test Status:</b>");
+        sections.put("customMessage", "");
+        sections.put("commits", "[alice]");
+        assertEquals("E <b>payments - #42</b>\nFailure after 3 min (<a href=\"http://ci/job/payments/42/\">Open</a>)"
+                        + "\n<b>Test Status:</b>\n<b>Changes:</b>\n[alice]",
+                MessageTemplate.compile(ActiveNotifier.DEFAULT_COMPLETED_TEMPLATE).expand(sections));
+
+        sections.put("cause", "");
+        sections.put("changes", "Started by changes from alice (1 file(s) changed)");
+        assertEquals("E <b>payments - #42</b>\nStarted by changes from alice (1 file(s) changed)"
+                        + " (<a href=\"http://ci/job/payments/42/\">Open</a>)",
+                MessageTemplate.compile(ActiveNotifier.DEFAULT_START_TEMPLATE).expand(sections));
+    }
+
+    @Test
+    public void defaultStartLayoutShowsTheCustomMessageOnlyWithoutACause() {
+        Map<String, String> sections = new HashMap<String, String>();
+        sections.put("emoticon", "E");
+        sections.put("job", "payments");
+        sections.put("build", "#42");
+        sections.put("url", "http://ci/job/payments/42/");
+        sections.put("customMessage", "Deploys to staging");
+        sections.put("changes", "Started by changes from alice (1 file(s) changed)");
+        MessageTemplate template = MessageTemplate.compile(ActiveNotifier.DEFAULT_START_TEMPLATE);
+        assertEquals("E <b>payments - #42</b>\nStarted by changes from alice (1 file(s) changed)"
+                + " (<a href=\"http://ci/job/payments/42/\">Open</a>)\nDeploys to staging", template.expand(sections));
+
+        sections.put("cause", "Started by user alice");
+        assertEquals("E <b>payments - #42</b>\nStarted by user alice (<a href=\"http://ci/job/payments/42/\">Open</a>)",
+                template.expand(sections));
+    }
+
+    @Test
+    public void namesListPlaceholdersAndConditions() {
+        MessageTemplate template = MessageTemplate.compile("${if !tests}$JOB_NAME${else}${tests}${end} $$ ${git.branch}");
+        assertEquals(new HashSet<String>(Arrays.asList("tests", "JOB_NAME", "git.branch")), template.getNames());
+        assertTrue(MessageTemplate.compile("no placeholders").getNames().isEmpty());
+    }
+}
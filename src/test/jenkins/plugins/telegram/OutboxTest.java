@@ -0,0 +1,142 @@
+package jenkins.plugins.telegram;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboxTest {
+
+    /** Tokens are encrypted with the controller's key. */
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void unacknowledgedMessagesAreRecoveredInOrder() throws IOException {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory);
+        long first = outbox.append("token", message("chat-1", "first"), 0);
+        long second = outbox.append("token", message("chat-2", "second"), 0);
+        long third = outbox.append("token", message("chat-1", "third"), 0);
+        outbox.acknowledge(second, true);
+        outbox.close();
+
+        List<Outbox.Entry> recovered = new Outbox(directory).recover();
+
+        assertEquals(2, recovered.size());
+        assertEquals(first, recovered.get(0).id);
+        assertEquals("first", recovered.get(0).message.getText());
+        assertEquals(third, recovered.get(1).id);
+        assertEquals("chat-1", recovered.get(1).message.getDestination().toString());
+    }
+
+    @Test
+    public void recoveredMessagesAreNotRecoveredTwiceOnceAcknowledged() throws IOException {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory);
+        outbox.append("token", message("chat", "message"), 0);
+        outbox.close();
+
+        Outbox restarted = new Outbox(directory);
+        List<Outbox.Entry> recovered = restarted.recover();
+        restarted.acknowledge(recovered.get(0).id, true);
+        restarted.close();
+
+        assertTrue(new Outbox(directory).recover().isEmpty());
+    }
+
+    @Test
+    public void outcomesOfAcknowledgedMessagesAreRecovered() throws IOException {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory);
+        long delivered = outbox.append("token", message("chat", "delivered"), 0);
+        long givenUp = outbox.append("token", message("chat", "given up"), 0);
+        long pending = outbox.append("token", message("chat", "pending"), 0);
+        outbox.acknowledge(delivered, true);
+        outbox.acknowledge(givenUp, false);
+        outbox.close();
+
+        Outbox restarted = new Outbox(directory);
+        restarted.recover();
+
+        assertEquals(Boolean.TRUE, restarted.outcome(delivered));
+        assertEquals(Boolean.FALSE, restarted.outcome(givenUp));
+        assertNull(restarted.outcome(pending));
+    }
+
+    @Test
+    public void tornEntryAtTheEndIsIgnored() throws IOException {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory);
+        outbox.append("token", message("chat", "complete"), 0);
+        outbox.close();
+        File[] segments = directory.listFiles();
+        FileOutputStream out = new FileOutputStream(segments[0], true);
+        out.write(new byte[]{1, 0, 0, 0});
+        out.close();
+
+        List<Outbox.Entry> recovered = new Outbox(directory).recover();
+
+        assertEquals(1, recovered.size());
+        assertEquals("complete", recovered.get(0).message.getText());
+    }
+
+    @Test
+    public void messagesAreRecoveredWithTheirAttributes() throws IOException {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory);
+        outbox.append("token", TelegramMessage.to("chat:7").text("*done*").parseMode("MarkdownV2").silent(true)
+                .replyMarkup("{\"inline_keyboard\":[]}").build(), 0);
+        outbox.append("token", TelegramMessage.to("chat").text("plain").parseMode(null).build(), 42);
+        outbox.close();
+
+        List<Outbox.Entry> recovered = new Outbox(directory).recover();
+
+        TelegramMessage markdown = recovered.get(0).message;
+        assertEquals("chat:7", markdown.getDestination().toString());
+        assertEquals("MarkdownV2", markdown.getParseMode());
+        assertTrue(markdown.isSilent());
+        assertEquals("{\"inline_keyboard\":[]}", markdown.getReplyMarkup());
+        assertEquals(0, recovered.get(0).editMessageId);
+        assertNull(recovered.get(1).message.getParseMode());
+        assertNull(recovered.get(1).message.getReplyMarkup());
+        assertEquals(42, recovered.get(1).editMessageId);
+    }
+
+    @Test
+    public void tokensAreNotJournaledInPlainText() throws IOException {
+        File directory = folder.newFolder("outbox");
+        Outbox outbox = new Outbox(directory);
+        outbox.append("123456:secret-bot-token", message("chat", "message"), 0);
+        outbox.close();
+
+        File[] segments = directory.listFiles();
+        byte[] content = new byte[(int) segments[0].length()];
+        FileInputStream in = new FileInputStream(segments[0]);
+        try {
+            assertEquals(content.length, in.read(content));
+        } finally {
+            in.close();
+        }
+        assertFalse(new String(content, "ISO-8859-1").contains("secret-bot-token"));
+        assertEquals("123456:secret-bot-token", new Outbox(directory).recover().get(0).token);
+    }
+
+    private static TelegramMessage message(String chatId, String text) {
+        return TelegramMessage.to(chatId).text(text).build();
+    }
+}
@@ -0,0 +1,48 @@
+package jenkins.plugins.telegram;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void chatBucketPacesReservationsInOrder() {
+        RateLimiter.TokenBucket bucket = new RateLimiter.TokenBucket(1, 1, 0);
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(SECOND, bucket.reserve(0));
+        assertEquals(2 * SECOND, bucket.reserve(0));
+    }
+
+    @Test
+    public void globalBucketAllowsABurstThenWaits() {
+        RateLimiter.TokenBucket bucket = new RateLimiter.TokenBucket(30, 30, 0);
+        for (int i = 0; i < 30; i++) {
+            assertEquals(0, bucket.tryAcquire(0));
+        }
+        assertTrue(bucket.tryAcquire(0) > 0);
+        assertEquals(0, bucket.tryAcquire(SECOND));
+    }
+
+    @Test
+    public void pauseDelaysTheNextReservation() {
+        RateLimiter.TokenBucket bucket = new RateLimiter.TokenBucket(1, 1, 0);
+        bucket.pause(5 * SECOND);
+        assertEquals(5 * SECOND, bucket.reserve(0));
+        assertEquals(5 * SECOND, bucket.pausedUntil());
+    }
+
+    @Test
+    public void retryAfterIsReadFromTooManyRequestsResponses() {
+        TelegramResponse response = TelegramResponse.parse(429,
+                "{\"ok\":false,\"error_code\":429,\"description\":\"Too Many Requests: retry after 7\","
+                        + "\"parameters\":{\"retry_after\":7}}");
+        assertTrue(response.isRateLimited());
+        assertEquals(7, response.getRetryAfter());
+    }
+}
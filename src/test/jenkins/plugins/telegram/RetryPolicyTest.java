@@ -0,0 +1,53 @@
+package jenkins.plugins.telegram;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(3, 1000, 4000);
+
+    @Test
+    public void transientFailuresAreRetried() {
+        assertTrue(policy.shouldRetry(TelegramResponse.failed(new IOException("reset")), 1));
+        assertTrue(policy.shouldRetry(TelegramResponse.parse(502, "Bad Gateway"), 1));
+        assertTrue(policy.shouldRetry(TelegramResponse.parse(429, "{\"ok\":false}"), 1));
+    }
+
+    @Test
+    public void permanentFailuresAreNotRetried() {
+        assertFalse(policy.shouldRetry(TelegramResponse.parse(400,
+                "{\"ok\":false,\"error_code\":400,\"description\":\"Bad Request: can't parse entities\"}"), 1));
+        assertFalse(policy.shouldRetry(TelegramResponse.parse(403,
+                "{\"ok\":false,\"error_code\":403,\"description\":\"Forbidden: bot was kicked\"}"), 1));
+    }
+
+    @Test
+    public void retriesStopAfterMaxAttempts() {
+        assertFalse(policy.shouldRetry(TelegramResponse.parse(500, null), 3));
+    }
+
+    @Test
+    public void backoffGrowsWithJitterUpToTheCap() {
+        TelegramResponse error = TelegramResponse.parse(500, null);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.delayBeforeRetry(error, 1);
+            assertTrue(first >= 500 && first <= 1000);
+            long third = policy.delayBeforeRetry(error, 3);
+            assertTrue(third >= 2000 && third <= 4000);
+            long capped = policy.delayBeforeRetry(error, 10);
+            assertTrue(capped >= 2000 && capped <= 4000);
+        }
+    }
+
+    @Test
+    public void retryAfterIsHonoured() {
+        assertEquals(7000, policy.delayBeforeRetry(TelegramResponse.parse(429,
+                "{\"ok\":false,\"parameters\":{\"retry_after\":7}}"), 1));
+    }
+}
@@ -0,0 +1,81 @@
+package jenkins.plugins.telegram;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RoutingTableTest {
+
+    private static RoutingRule rule(String jobs, String folder, String transitions) {
+        return new RoutingRule(jobs, folder, transitions, "", "chat", "", false, false, "");
+    }
+
+    private static List<Integer> matched(RoutingTable table, String fullName) {
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (RoutingTable.Route route : table.routesFor(fullName)) {
+            indexes.add(route.index);
+        }
+        return indexes;
+    }
+
+    @Test
+    public void matchesGlobsFoldersAndRegexesInRuleOrder() {
+        RoutingTable table = new RoutingTable(Arrays.asList(
+                rule("team-a/*-deploy", "", ""),
+                rule("", "team-a", ""),
+                rule("/.*release.*/", "", ""),
+                rule("team-b/**", "", ""),
+                rule("team-b/nightly", "", "")));
+
+        assertEquals(Arrays.asList(0, 1), matched(table, "team-a/web-deploy"));
+        assertEquals(Arrays.asList(1), matched(table, "team-a/sub/web-deploy"));
+        assertEquals(Arrays.asList(1, 2), matched(table, "team-a/release"));
+        assertEquals(Arrays.asList(3, 4), matched(table, "team-b/nightly"));
+        assertEquals(Arrays.asList(3), matched(table, "team-b/x/nightly"));
+        assertTrue(matched(table, "team-c/nightly").isEmpty());
+    }
+
+    @Test
+    public void cachesRoutesPerJob() {
+        RoutingTable table = new RoutingTable(Arrays.asList(rule("**", "", "")));
+        assertSame(table.routesFor("a/b"), table.routesFor("a/b"));
+    }
+
+    @Test
+    public void invalidRulesNeverMatch() {
+        RoutingTable table = new RoutingTable(Arrays.asList(rule("/[/", "", ""), rule("other/job", "team-a", "")));
+        assertTrue(matched(table, "[").isEmpty());
+        assertTrue(matched(table, "other/job").isEmpty());
+    }
+
+    @Test
+    public void transitionsSelectWhatIsSent() {
+        TelegramNotifier notifier = rule("", "", "starting, failure, BACK_TO_NORMAL").toNotifier();
+        assertTrue(notifier.getStartNotification());
+        assertTrue(notifier.getNotifyFailure());
+        assertTrue(notifier.getNotifyBackToNormal());
+        assertFalse(notifier.getNotifySuccess());
+        assertFalse(notifier.getNotifyRepeatedFailure());
+
+        TelegramNotifier any = rule("", "", "").toNotifier();
+        assertFalse(any.getStartNotification());
+        assertTrue(any.getNotifySuccess());
+    }
+
+    @Test
+    public void globsStayWithinFolders() {
+        assertTrue(RoutingTable.glob("a/*").matcher("a/b").matches());
+        assertFalse(RoutingTable.glob("a/*").matcher("a/b/c").matches());
+        assertTrue(RoutingTable.glob("a/**").matcher("a/b/c").matches());
+        assertTrue(RoutingTable.glob("job-?.x").matcher("job-1.x").matches());
+        assertFalse(RoutingTable.glob("job-?.x").matcher("job-1yx").matches());
+        assertEquals("a/b-", RoutingTable.literalPrefix("a/b-*"));
+    }
+}
@@ -14,6 +14,11 @@ public class StandardTelegramServiceStub extends StandardTelegramService {
         return httpClientStub;
     }
 
+    @Override
+    protected TelegramTransport getTransport() {
+        return new CommonsHttpTransport(httpClientStub);
+    }
+
     public void setHttpClient(HttpClientStub httpClientStub) {
         this.httpClientStub = httpClientStub;
     }
@@ -3,6 +3,9 @@ package jenkins.plugins.telegram;
 import org.apache.http.HttpStatus;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -67,4 +70,31 @@ public class StandardTelegramServiceTest {
         service.setHttpClient(httpClientStub);
         assertTrue(service.publish("message"));
     }
+
+    @Test
+    public void consecutivePublishesReuseOneConnection() throws IOException {
+        TelegramApiStub api = new TelegramApiStub();
+        try {
+            StandardTelegramService service = new StandardTelegramService("token", "chatId", api.getApiUrl());
+            for (int i = 0; i < 5; i++) {
+                assertTrue(service.publish("message " + i));
+            }
+            assertEquals(5, api.getRequestCount());
+            assertEquals(1, api.getConnectionCount());
+        } finally {
+            api.close();
+        }
+    }
+
+    @Test
+    public void sentMessageIdComesBackThroughTheTransport() throws Exception {
+        TelegramApiStub api = new TelegramApiStub();
+        try {
+            api.respondWith(200, "{\"ok\":true,\"result\":{\"message_id\":42}}");
+            StandardTelegramService service = new StandardTelegramService("token", "chatId", api.getApiUrl());
+            assertEquals(42, service.post("message").get(5, TimeUnit.SECONDS).getMessageId());
+        } finally {
+            api.close();
+        }
+    }
 }
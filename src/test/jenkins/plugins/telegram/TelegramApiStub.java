@@ -0,0 +1,151 @@
+package jenkins.plugins.telegram;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process HTTP/1.1 server answering like the Telegram Bot API.
+ * <p>
+ * Keeps connections alive and counts accepted connections and requests, so tests can
+ * verify connection reuse.
+ */
+public class TelegramApiStub {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ServerSocket serverSocket;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile String body = "{\"ok\":true,\"result\":{\"message_id\":1}}";
+
+    public TelegramApiStub() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        Thread handler = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        });
+                        handler.setDaemon(true);
+                        handler.start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        }, "Telegram API stub");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * URL template in the format expected by {@link StandardTelegramService}.
+     */
+    public String getApiUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/bot%s/sendMessage";
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public void respondWith(int status, String body) {
+        this.status = status;
+        this.body = body;
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                int contentLength = readHeaders(in);
+                if (contentLength < 0) {
+                    break;
+                }
+                for (int i = 0; i < contentLength; i++) {
+                    if (in.read() < 0) {
+                        return;
+                    }
+                }
+                requests.incrementAndGet();
+                byte[] payload = body.getBytes(UTF_8);
+                String head = "HTTP/1.1 " + status + " Stub\r\n"
+                        + "Content-Type: application/json\r\n"
+                        + "Content-Length: " + payload.length + "\r\n"
+                        + "Connection: keep-alive\r\n\r\n";
+                out.write(head.getBytes(UTF_8));
+                out.write(payload);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // connection closed by the client
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Reads the request line and headers, returning the content length or -1 at end of stream.
+     */
+    private static int readHeaders(InputStream in) throws IOException {
+        int contentLength = 0;
+        boolean sawRequestLine = false;
+        while (true) {
+            String line = readLine(in);
+            if (line == null) {
+                return -1;
+            }
+            if (line.isEmpty()) {
+                if (sawRequestLine) {
+                    return contentLength;
+                }
+                continue;
+            }
+            sawRequestLine = true;
+            if (line.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                String s = new String(line.toByteArray(), UTF_8);
+                return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+            }
+            line.write(c);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,132 @@
+package jenkins.plugins.telegram;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TelegramDispatcherTest {
+
+    @Test
+    public void dropOldestCompletesTheDroppedFutureAsNotSent() throws Exception {
+        TelegramDispatcher dispatcher = new TelegramDispatcher(1, 1, OverflowPolicy.DROP_OLDEST, null);
+        BlockingService service = new BlockingService();
+
+        ListenableFuture<TelegramResponse> inFlight = dispatcher.submit(service, "in flight");
+        service.started.await(5, TimeUnit.SECONDS);
+        ListenableFuture<TelegramResponse> oldest = dispatcher.submit(service, "oldest");
+        ListenableFuture<TelegramResponse> newest = dispatcher.submit(service, "newest");
+
+        assertFalse(oldest.get(5, TimeUnit.SECONDS).isOk());
+        service.release.countDown();
+        assertTrue(inFlight.get(5, TimeUnit.SECONDS).isOk());
+        assertTrue(newest.get(5, TimeUnit.SECONDS).isOk());
+        dispatcher.shutdown(1000);
+    }
+
+    @Test
+    public void blockOnlyMakesBuildsWait() throws Exception {
+        TelegramDispatcher dispatcher = new TelegramDispatcher(1, 1, OverflowPolicy.BLOCK, null);
+        BlockingService service = new BlockingService();
+
+        ListenableFuture<TelegramResponse> inFlight = dispatcher.submit(service, "in flight");
+        service.started.await(5, TimeUnit.SECONDS);
+        ListenableFuture<TelegramResponse> oldest = dispatcher.submit(service, "oldest");
+        // not a build executor, so the full queue drops the oldest message instead of blocking
+        ListenableFuture<TelegramResponse> newest = dispatcher.submit(service, "newest");
+
+        assertFalse(oldest.get(5, TimeUnit.SECONDS).isOk());
+        service.release.countDown();
+        assertTrue(inFlight.get(5, TimeUnit.SECONDS).isOk());
+        assertTrue(newest.get(5, TimeUnit.SECONDS).isOk());
+        dispatcher.shutdown(1000);
+    }
+
+    @Test
+    public void shutdownDrainsQueuedMessages() throws Exception {
+        TelegramDispatcher dispatcher = new TelegramDispatcher(10, 2, OverflowPolicy.BLOCK, null);
+        BlockingService service = new BlockingService();
+        service.release.countDown();
+
+        ListenableFuture<TelegramResponse> first = dispatcher.submit(service, "first");
+        ListenableFuture<TelegramResponse> second = dispatcher.submit(service, "second");
+        dispatcher.shutdown(5000);
+
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+    }
+
+    @Test
+    public void submitAllAnswersEachMessageInOrder() throws Exception {
+        TelegramDispatcher dispatcher = new TelegramDispatcher(10, 1, OverflowPolicy.BLOCK, null);
+        final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        StandardTelegramService service = new StandardTelegramService("token", "chatId") {
+            @Override
+            ListenableFuture<TelegramResponse> sendAsync(TelegramMessage message, long editMessageId) {
+                sent.add(message.getDestination() + " " + message.getText());
+                return Futures.immediateFuture(TelegramResponse.parse(200,
+                        "{\"ok\":true,\"result\":{\"message_id\":" + sent.size() + "}}"));
+            }
+        };
+
+        List<ListenableFuture<TelegramResponse>> results = dispatcher.submitAll(service, Arrays.asList(
+                TelegramMessage.to("-1001").text("first").build(),
+                TelegramMessage.to("-1002:7").text("second").silent(true).build(),
+                TelegramMessage.to("-1003").text("third").build()));
+
+        assertEquals(1, results.get(0).get(5, TimeUnit.SECONDS).getMessageId());
+        assertEquals(2, results.get(1).get(5, TimeUnit.SECONDS).getMessageId());
+        assertEquals(3, results.get(2).get(5, TimeUnit.SECONDS).getMessageId());
+        assertEquals(Arrays.asList("-1001 first", "-1002:7 second", "-1003 third"), sent);
+        dispatcher.shutdown(1000);
+    }
+
+    @Test
+    public void transportFailuresAreRetried() throws Exception {
+        TelegramDispatcher dispatcher = new TelegramDispatcher(10, 1, OverflowPolicy.BLOCK, null);
+        final AtomicInteger attempts = new AtomicInteger();
+        StandardTelegramService service = new StandardTelegramService("token", "chatId") {
+            @Override
+            ListenableFuture<TelegramResponse> sendAsync(TelegramMessage message, long editMessageId) {
+                if (attempts.incrementAndGet() == 1) {
+                    return Futures.immediateFailedFuture(new IllegalStateException("transport closed"));
+                }
+                return Futures.immediateFuture(TelegramResponse.parse(200, "{\"ok\":true}"));
+            }
+        };
+
+        assertTrue(dispatcher.submit(service, "message").get(10, TimeUnit.SECONDS).isOk());
+        assertEquals(2, attempts.get());
+        dispatcher.shutdown(1000);
+    }
+
+    private static class BlockingService extends StandardTelegramService {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingService() {
+            super("token", "chatId");
+        }
+
+        @Override
+        ListenableFuture<TelegramResponse> sendAsync(TelegramMessage message, long editMessageId) {
+            started.countDown();
+            try {
+                return Futures.immediateFuture(TelegramResponse.parse(release.await(5, TimeUnit.SECONDS) ? 200 : 500, "{}"));
+            } catch (InterruptedException e) {
+                return Futures.immediateFuture(TelegramResponse.notSent("interrupted"));
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package jenkins.plugins.telegram;
+
+import hudson.model.FreeStyleProject;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TelegramJobPropertyTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void pipelineRunsAreAnnounced() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "workflow");
+        TelegramNotifier notifier = new TelegramNotifier("token", "chatId", "", "Jenkins", true, false, false, false,
+                true, false, false, false, false, false, CommitInfoChoice.NONE, false, "");
+        job.addProperty(new TelegramJobProperty(notifier));
+        job.setDefinition(new CpsFlowDefinition("echo 'hello'", true));
+
+        assertEquals(Collections.singletonList(notifier), TelegramNotifierCache.get(job));
+        WorkflowRun run = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0).get());
+        jenkinsRule.assertLogContains("Telegram notification queued for chatId", run);
+    }
+
+    @Test
+    public void onlyOfferedForJobsWithoutPublishers() {
+        TelegramJobProperty.DescriptorImpl descriptor = jenkinsRule.jenkins.getDescriptorByType(TelegramJobProperty.DescriptorImpl.class);
+        assertTrue(descriptor.isApplicable(WorkflowJob.class));
+        assertFalse(descriptor.isApplicable(FreeStyleProject.class));
+    }
+}
@@ -0,0 +1,59 @@
+package jenkins.plugins.telegram;
+
+import net.sf.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TelegramMetricsTest {
+
+    @Test
+    public void percentilesReportTheBucketBound() {
+        TelegramMetrics.Histogram histogram = new TelegramMetrics.Histogram(new long[]{10, 100, 1000});
+        for (int i = 0; i < 90; i++) {
+            histogram.record(5);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(50);
+        }
+        histogram.record(700);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(10, histogram.getPercentile(0.5));
+        assertEquals(100, histogram.getPercentile(0.95));
+        assertEquals(100, histogram.getPercentile(0.99));
+        assertEquals(700, histogram.getPercentile(1.0));
+        assertEquals(700, histogram.getMax());
+    }
+
+    @Test
+    public void valuesAboveTheLastBoundGoToTheOverflowBucket() {
+        TelegramMetrics.Histogram histogram = new TelegramMetrics.Histogram(new long[]{10});
+        histogram.record(10);
+        histogram.record(5000);
+
+        JSONObject buckets = histogram.toJSON().getJSONObject("buckets");
+        assertEquals(1, buckets.getLong("le10"));
+        assertEquals(1, buckets.getLong("inf"));
+        assertEquals(5000, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void responsesAreSummedPerStatusRange() {
+        long ok = TelegramMetrics.getResponses(200, 299);
+        long clientErrors = TelegramMetrics.getResponses(400, 499);
+        TelegramMetrics.response(200, 0);
+        TelegramMetrics.response(429, 0);
+        TelegramMetrics.response(403, 0);
+
+        assertEquals(ok + 1, TelegramMetrics.getResponses(200, 299));
+        assertEquals(clientErrors + 2, TelegramMetrics.getResponses(400, 499));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        TelegramMetrics.Histogram histogram = new TelegramMetrics.Histogram(new long[]{10});
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(0.0, histogram.getMean(), 0.0);
+    }
+}
@@ -1,5 +1,7 @@
 package jenkins.plugins.telegram;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import hudson.model.Descriptor;
 import hudson.util.FormValidation;
 import junit.framework.TestCase;
@@ -67,6 +69,26 @@ public class TelegramNotifierTest extends TestCase {
             return response;
         }
 
+        public ListenableFuture<Boolean> enqueue(String message) {
+            return Futures.immediateFuture(response);
+        }
+
+        public ListenableFuture<Boolean> enqueue(BuildSummary build) {
+            return Futures.immediateFuture(response);
+        }
+
+        public ListenableFuture<TelegramResponse> post(String message) {
+            return Futures.immediateFuture(TelegramResponse.parse(response ? 200 : 400, "{}"));
+        }
+
+        public ListenableFuture<TelegramResponse> edit(long messageId, String message) {
+            return post(message);
+        }
+
+        public TelegramDelivery queue(String message) {
+            return new TelegramDelivery(new long[0], post(message));
+        }
+
         public void setResponse(boolean response) {
             this.response = response;
         }
@@ -0,0 +1,39 @@
+package jenkins.plugins.telegram;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TelegramResponseTest {
+
+    @Test
+    public void sentMessageCarriesItsId() {
+        TelegramResponse response = TelegramResponse.parse(200,
+                "{\"ok\":true,\"result\":{\"message_id\":4711,\"chat\":{\"id\":-100123},\"text\":\"hi\"}}");
+
+        assertTrue(response.isOk());
+        assertEquals(4711, response.getMessageId());
+    }
+
+    @Test
+    public void rateLimitedResponseCarriesRetryAfter() {
+        TelegramResponse response = TelegramResponse.parse(429,
+                "{\"ok\":false,\"error_code\":429,\"description\":\"Too Many Requests: retry after 5\","
+                        + "\"parameters\":{\"retry_after\":5}}");
+
+        assertTrue(response.isRateLimited());
+        assertEquals(5, response.getRetryAfter());
+        assertEquals(0, response.getMessageId());
+    }
+
+    @Test
+    public void unchangedEditIsRecognised() {
+        TelegramResponse response = TelegramResponse.parse(400, "{\"ok\":false,\"error_code\":400,"
+                + "\"description\":\"Bad Request: message is not modified\"}");
+
+        assertFalse(response.isOk());
+        assertTrue(response.isNotModified());
+    }
+}
@@ -22,7 +22,9 @@ public class TelegramSendStepIntegrationTest {
         TelegramSendStep step1 = new TelegramSendStep("message");
         step1.setChatId("123456789");
         step1.setToken("token");
-        step1.setFailOnError(true);
+        step1.setFailOnError(false);
+        step1.setWait(false);
+        step1.setTemplate(true);
 
         TelegramSendStep step2 = new StepConfigTester(jenkinsRule).configRoundTrip(step1);
         jenkinsRule.assertEqualDataBoundBeans(step1,step2);
@@ -47,4 +49,27 @@ public class TelegramSendStepIntegrationTest {
         //everything should come from step configuration
         jenkinsRule.assertLogContains(Messages.NotificationFailed(), run);
     }
+
+    @Test
+    public void test_template() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "workflow");
+        job.setDefinition(new CpsFlowDefinition("telegramSend(message: '${job} ${build}', token: 'token', chatId: 'chatId', template: true);", true));
+        WorkflowRun run = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0).get());
+        jenkinsRule.assertLogContains(Messages.TelegramSendStepConfig(false, false), run);
+    }
+
+    @Test
+    public void test_no_wait_ignores_errors() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "workflow");
+        job.setDefinition(new CpsFlowDefinition("telegramSend(message: 'message', token: 'token', chatId: 'chatId', wait: false);", true));
+        jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0).get());
+    }
+
+    @Test
+    public void test_no_wait_rejects_fail_on_error() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "workflow");
+        job.setDefinition(new CpsFlowDefinition("telegramSend(message: 'message', token: 'token', chatId: 'chatId', failOnError: true, wait: false);", true));
+        WorkflowRun run = jenkinsRule.assertBuildStatus(Result.FAILURE, job.scheduleBuild2(0).get());
+        jenkinsRule.assertLogContains(Messages.TelegramSendStepFailOnErrorWithoutWait(), run);
+    }
 }